@@ -0,0 +1,40 @@
+package at.bitfire.vcard4android;
+
+import android.content.ContentProviderClient;
+import android.support.annotation.NonNull;
+
+/**
+ * A view of another {@link BatchOperation}, starting at its end, so the operations of one more resource can be
+ * enqueued to it. Back-references, which {@link AndroidContact} always makes relative to the start of its batch, are
+ * moved to where the resource's operations really are.
+ * <p>
+ * In the library's package to get at the back-references of its operations.
+ */
+public class OffsetBatchOperation extends BatchOperation {
+    private final BatchOperation batch;
+    private final int offset;
+
+    public OffsetBatchOperation(@NonNull ContentProviderClient providerClient, @NonNull BatchOperation batch) {
+        super(providerClient);
+        this.batch = batch;
+        this.offset = batch.nextBackrefIdx();
+    }
+
+    @Override
+    public int nextBackrefIdx() {
+        return batch.nextBackrefIdx() - offset;
+    }
+
+    @Override
+    public void enqueue(Operation operation) {
+        if (operation.backrefKey != null) {
+            operation = new Operation(operation.builder, operation.backrefKey, operation.backrefIdx + offset);
+        }
+        batch.enqueue(operation);
+    }
+
+    @Override
+    public int commit() throws ContactsStorageException {
+        throw new UnsupportedOperationException("Commit the underlying batch instead");
+    }
+}
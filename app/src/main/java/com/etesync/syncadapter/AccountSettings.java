@@ -29,7 +29,7 @@ import android.support.annotation.Nullable;
 import com.etesync.syncadapter.journalmanager.Crypto;
 import com.etesync.syncadapter.model.CollectionInfo;
 import com.etesync.syncadapter.resource.LocalAddressBook;
-import com.etesync.syncadapter.utils.Base64;
+import com.etesync.syncadapter.utils.Base64Codec;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -137,8 +137,8 @@ public class AccountSettings {
 
     public Crypto.AsymmetricKeyPair getKeyPair() {
         if (accountManager.getUserData(account, KEY_ASYMMETRIC_PUBLIC_KEY) != null) {
-            byte[] pubkey = Base64.decode(accountManager.getUserData(account, KEY_ASYMMETRIC_PUBLIC_KEY), Base64.NO_WRAP);
-            byte[] privkey = Base64.decode(accountManager.getUserData(account, KEY_ASYMMETRIC_PRIVATE_KEY), Base64.NO_WRAP);
+            byte[] pubkey = Base64Codec.decode(accountManager.getUserData(account, KEY_ASYMMETRIC_PUBLIC_KEY));
+            byte[] privkey = Base64Codec.decode(accountManager.getUserData(account, KEY_ASYMMETRIC_PRIVATE_KEY));
 
             return new Crypto.AsymmetricKeyPair(privkey, pubkey);
         }
@@ -147,8 +147,10 @@ public class AccountSettings {
     }
 
     public void setKeyPair(@NonNull Crypto.AsymmetricKeyPair keyPair) {
-        accountManager.setUserData(account, KEY_ASYMMETRIC_PUBLIC_KEY, Base64.encodeToString(keyPair.getPublicKey(), Base64.NO_WRAP));
-        accountManager.setUserData(account, KEY_ASYMMETRIC_PRIVATE_KEY, Base64.encodeToString(keyPair.getPrivateKey(), Base64.NO_WRAP));
+        accountManager.setUserData(account, KEY_ASYMMETRIC_PUBLIC_KEY, Base64Codec.encodeToString(keyPair.getPublicKey()));
+        accountManager.setUserData(account, KEY_ASYMMETRIC_PRIVATE_KEY, Base64Codec.encodeToString(keyPair.getPrivateKey()));
+        Crypto.CryptoManagerCache.invalidate();
+        JournalListCache.clear(context);
     }
 
     public String username() {
@@ -165,6 +167,8 @@ public class AccountSettings {
 
     public void password(@NonNull String password) {
         accountManager.setPassword(account, password);
+        Crypto.CryptoManagerCache.invalidate();
+        JournalListCache.clear(context);
     }
 
 
@@ -36,6 +36,7 @@ import android.support.v4.content.ContextCompat;
 import android.support.v7.app.NotificationCompat;
 import android.util.Log;
 
+import com.etesync.syncadapter.journalmanager.CryptoBackend;
 import com.etesync.syncadapter.log.LogcatHandler;
 import com.etesync.syncadapter.log.PlainTextFormatter;
 import com.etesync.syncadapter.model.CollectionInfo;
@@ -84,7 +85,10 @@ public class App extends Application {
             OVERRIDE_PROXY = "overrideProxy",
             OVERRIDE_PROXY_HOST = "overrideProxyHost",
             OVERRIDE_PROXY_PORT = "overrideProxyPort",
-            FORCE_LANGUAGE = "forceLanguage";
+            FORCE_LANGUAGE = "forceLanguage",
+            CRYPTO_BACKEND = "cryptoBackend",
+            COMPRESS_REQUESTS = "compressRequests",
+            SYNC_PARALLELISM = "syncParallelism";
 
     public static final String OVERRIDE_PROXY_HOST_DEFAULT = "localhost";
     public static final int OVERRIDE_PROXY_PORT_DEFAULT = 8118;
@@ -122,6 +126,7 @@ public class App extends Application {
         super.onCreate();
         reinitCertManager();
         reinitLogger();
+        reinitCryptoBackend();
         StrictMode.enableDefaults();
         initPrefVersion();
 
@@ -215,6 +220,13 @@ public class App extends Application {
             nm.cancel(Constants.NOTIFICATION_EXTERNAL_FILE_LOGGING);
     }
 
+    public void reinitCryptoBackend() {
+        @Cleanup ServiceDB.OpenHelper dbHelper = new ServiceDB.OpenHelper(this);
+        Settings settings = new Settings(dbHelper.getReadableDatabase());
+
+        CryptoBackend.setPreferred(settings.getString(CRYPTO_BACKEND, CryptoBackend.AUTO));
+    }
+
     @Nullable
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public static Bitmap getLauncherBitmap(@NonNull Context context) {
@@ -233,10 +245,12 @@ public class App extends Application {
 
         @Override
         public void onReceive(Context context, Intent intent) {
-            log.info("Received broadcast: re-initializing settings (logger/cert manager)");
+            log.info("Received broadcast: re-initializing settings (logger/cert manager/crypto backend/http clients)");
 
             App app = (App)context.getApplicationContext();
             app.reinitLogger();
+            app.reinitCryptoBackend();
+            HttpClient.reinit();
         }
 
     }
@@ -252,7 +266,7 @@ public class App extends Application {
     public EntityDataStore<Persistable> getData() {
         if (dataStore == null) {
             // override onUpgrade to handle migrating to a new version
-            DatabaseSource source = new MyDatabaseSource(this, Models.DEFAULT, 4);
+            DatabaseSource source = new MyDatabaseSource(this, Models.DEFAULT, 7);
             Configuration configuration = source.getConfiguration();
             dataStore = new EntityDataStore<>(configuration);
         }
@@ -286,6 +300,10 @@ public class App extends Application {
                 db.execSQL("CREATE UNIQUE INDEX entry_unique_together on Entry (journal, uid);");
                 db.execSQL("PRAGMA foreign_keys=ON;");
             }
+
+            // Version 5 added the Outbox table, version 6 the LocalUid table and version 7 the Outbox's localUid
+            // column, which super.onUpgrade() creates as they're missing. Outbox rows from before version 7 don't
+            // match any resource, so the next sync drops them and creates them again.
         }
     }
 
@@ -1,30 +1,71 @@
 package com.etesync.syncadapter;
 
-import com.etesync.syncadapter.utils.Base64;
+import com.etesync.syncadapter.journalmanager.JournalEntryManager;
+import com.etesync.syncadapter.journalmanager.JournalManager;
+import com.etesync.syncadapter.journalmanager.UserInfoManager;
+import com.etesync.syncadapter.model.SyncEntry;
+import com.etesync.syncadapter.utils.Base64Codec;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 
 public class GsonHelper {
-    public static final Gson gson = new GsonBuilder().registerTypeHierarchyAdapter(byte[].class,
-            new ByteArrayToBase64TypeAdapter()).create();
+    public static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(byte[].class, new ByteArrayToBase64TypeAdapter().nullSafe())
+            .registerTypeAdapter(JournalEntryManager.Entry.class, new JournalEntryManager.Entry.GsonAdapter().nullSafe())
+            .registerTypeAdapter(JournalManager.Journal.class, new JournalManager.Journal.GsonAdapter().nullSafe())
+            .registerTypeAdapter(JournalManager.Member.class, new JournalManager.Member.GsonAdapter().nullSafe())
+            .registerTypeAdapter(UserInfoManager.UserInfo.class, new UserInfoManager.UserInfo.GsonAdapter().nullSafe())
+            .registerTypeAdapter(SyncEntry.class, new SyncEntry.GsonAdapter().nullSafe())
+            .create();
 
-    // Using Android's base64 libraries. This can be replaced with any base64 library.
-    private static class ByteArrayToBase64TypeAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
-        public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            return Base64.decode(json.getAsString(), Base64.NO_WRAP);
+    /**
+     * Reads a base64 encoded byte array, or null.
+     */
+    public static byte[] readBytes(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return Base64Codec.decode(in.nextString());
+    }
+
+    /**
+     * Writes a byte array base64 encoded, or null.
+     */
+    public static void writeBytes(JsonWriter out, byte[] value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else {
+            out.value(Base64Codec.encodeToString(value));
+        }
+    }
+
+    /**
+     * Reads a string, or null.
+     */
+    public static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static class ByteArrayToBase64TypeAdapter extends TypeAdapter<byte[]> {
+        @Override
+        public void write(JsonWriter out, byte[] value) throws IOException {
+            writeBytes(out, value);
         }
 
-        public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
-            return new JsonPrimitive(Base64.encodeToString(src, Base64.NO_WRAP));
+        @Override
+        public byte[] read(JsonReader in) throws IOException {
+            return readBytes(in);
         }
     }
 }
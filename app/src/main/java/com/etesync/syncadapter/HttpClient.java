@@ -18,11 +18,15 @@ import com.etesync.syncadapter.model.ServiceDB;
 import com.etesync.syncadapter.model.Settings;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,13 +34,36 @@ import java.util.logging.Logger;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.logging.HttpLoggingInterceptor;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
 
 public class HttpClient {
     private static final OkHttpClient client = new OkHttpClient();
     private static final UserAgentInterceptor userAgentInterceptor = new UserAgentInterceptor();
 
+    private static final int MAX_CLIENTS = 16;
+
+    /**
+     * Built clients by {@link #clientKey(Context, Logger, String, String)}. They all derive from {@link #client} so they
+     * share its connection pool and dispatcher, and the cached proxy and socket factory keep the pooled connections and
+     * TLS sessions reusable across them.
+     */
+    private static final Map<String, OkHttpClient> clients = new LinkedHashMap<String, OkHttpClient>(MAX_CLIENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OkHttpClient> eldest) {
+            return size() > MAX_CLIENTS;
+        }
+    };
+
+    private static boolean settingsLoaded = false;
+    private static Proxy proxy = null;
+    private static boolean compressRequests = false;
+
     private static final String userAgent;
 
     static {
@@ -48,12 +75,20 @@ public class HttpClient {
     }
 
     public static OkHttpClient create(@Nullable Context context, @NonNull final Logger logger, @Nullable String host, @NonNull String token) {
-        OkHttpClient.Builder builder = defaultBuilder(context, logger);
+        String key = clientKey(context, logger, host, token);
+        synchronized (HttpClient.class) {
+            OkHttpClient ret = clients.get(key);
+            if (ret == null) {
+                OkHttpClient.Builder builder = defaultBuilder(context, logger);
 
-        // use account settings for authentication
-        builder = addAuthentication(builder, host, token);
+                // use account settings for authentication
+                builder = addAuthentication(builder, host, token);
 
-        return builder.build();
+                ret = builder.build();
+                clients.put(key, ret);
+            }
+            return ret;
+        }
     }
 
     public static OkHttpClient create(@Nullable Context context, @NonNull AccountSettings settings, @NonNull final Logger logger) {
@@ -61,7 +96,15 @@ public class HttpClient {
     }
 
     public static OkHttpClient create(@NonNull Context context, @NonNull Logger logger) {
-        return defaultBuilder(context, logger).build();
+        String key = clientKey(context, logger, null, null);
+        synchronized (HttpClient.class) {
+            OkHttpClient ret = clients.get(key);
+            if (ret == null) {
+                ret = defaultBuilder(context, logger).build();
+                clients.put(key, ret);
+            }
+            return ret;
+        }
     }
 
     public static OkHttpClient create(@NonNull Context context, @NonNull AccountSettings settings) {
@@ -76,6 +119,46 @@ public class HttpClient {
         return create(context, App.log, Constants.serviceUrl.getHost(), authToken);
     }
 
+    /**
+     * Drops the cached clients and settings, so the next {@link #create} picks up changed settings.
+     */
+    public static synchronized void reinit() {
+        clients.clear();
+        settingsLoaded = false;
+        proxy = null;
+        compressRequests = false;
+    }
+
+    private static String clientKey(@Nullable Context context, @NonNull Logger logger, @Nullable String host, @Nullable String token) {
+        return (context != null) + "|" + logger.getName() + "|" + logger.isLoggable(Level.FINEST) + "|" + host + "|" + token;
+    }
+
+    private static synchronized void loadSettings(@NonNull Context context) {
+        if (settingsLoaded) {
+            return;
+        }
+
+        SQLiteOpenHelper dbHelper = new ServiceDB.OpenHelper(context);
+        try {
+            Settings settings = new Settings(dbHelper.getReadableDatabase());
+            compressRequests = settings.getBoolean(App.COMPRESS_REQUESTS, false);
+            if (settings.getBoolean(App.OVERRIDE_PROXY, false)) {
+                InetSocketAddress address = new InetSocketAddress(
+                        settings.getString(App.OVERRIDE_PROXY_HOST, App.OVERRIDE_PROXY_HOST_DEFAULT),
+                        settings.getInt(App.OVERRIDE_PROXY_PORT, App.OVERRIDE_PROXY_PORT_DEFAULT)
+                );
+
+                proxy = new Proxy(Proxy.Type.HTTP, address);
+                App.log.log(Level.INFO, "Using proxy", proxy);
+            }
+        } catch (IllegalArgumentException | NullPointerException e) {
+            App.log.log(Level.SEVERE, "Can't set proxy, ignoring", e);
+        } finally {
+            dbHelper.close();
+        }
+
+        settingsLoaded = true;
+    }
 
     private static OkHttpClient.Builder defaultBuilder(@Nullable Context context, @NonNull final Logger logger) {
         OkHttpClient.Builder builder = client.newBuilder();
@@ -96,29 +179,24 @@ public class HttpClient {
 
         // custom proxy support
         if (context != null) {
-            SQLiteOpenHelper dbHelper = new ServiceDB.OpenHelper(context);
-            try {
-                Settings settings = new Settings(dbHelper.getReadableDatabase());
-                if (settings.getBoolean(App.OVERRIDE_PROXY, false)) {
-                    InetSocketAddress address = new InetSocketAddress(
-                            settings.getString(App.OVERRIDE_PROXY_HOST, App.OVERRIDE_PROXY_HOST_DEFAULT),
-                            settings.getInt(App.OVERRIDE_PROXY_PORT, App.OVERRIDE_PROXY_PORT_DEFAULT)
-                    );
-
-                    Proxy proxy = new Proxy(Proxy.Type.HTTP, address);
-                    builder.proxy(proxy);
-                    App.log.log(Level.INFO, "Using proxy", proxy);
-                }
-            } catch (IllegalArgumentException | NullPointerException e) {
-                App.log.log(Level.SEVERE, "Can't set proxy, ignoring", e);
-            } finally {
-                dbHelper.close();
+            loadSettings(context);
+            if (proxy != null) {
+                builder.proxy(proxy);
             }
         }
 
+        // compress request bodies
+        builder.addInterceptor(new CompressionInterceptor((context != null) && compressRequests));
+
+        // count the response bytes after OkHttp decompressed them, see DebugInfoActivity
+        builder.addInterceptor(HttpMetrics.decodedInterceptor);
+
         // add User-Agent to every request
         builder.addNetworkInterceptor(userAgentInterceptor);
 
+        // keep per endpoint statistics, see DebugInfoActivity
+        builder.addNetworkInterceptor(HttpMetrics.interceptor);
+
         // add network logging, if requested
         if (logger.isLoggable(Level.FINEST)) {
             HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor(new HttpLoggingInterceptor.Logger() {
@@ -170,6 +248,78 @@ public class HttpClient {
         }
     }
 
+    /**
+     * If enabled, gzips request bodies. Servers that don't support that reply with 415 Unsupported Media Type, in which
+     * case the request is resent uncompressed and the host isn't sent compressed requests for a while. Responses are
+     * left to OkHttp, which asks for gzip and decodes it transparently.
+     */
+    static class CompressionInterceptor implements Interceptor {
+        private static final int MIN_COMPRESS_SIZE = 1024;
+        /**
+         * How long a host that rejected a compressed request is sent uncompressed ones, e.g. until a server update or
+         * a different proxy is in place.
+         */
+        private static final long UNCOMPRESSED_MILLIS = TimeUnit.HOURS.toMillis(24);
+        private static final int MAX_UNCOMPRESSED_HOSTS = 32;
+        /**
+         * Until when hosts are sent uncompressed requests, by host.
+         */
+        private static final Map<String, Long> uncompressedHosts = new ConcurrentHashMap<>();
+
+        private final boolean compressRequests;
+
+        CompressionInterceptor(boolean compressRequests) {
+            this.compressRequests = compressRequests;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            RequestBody body = request.body();
+            long length = (body != null) ? body.contentLength() : 0;
+            String host = request.url().host();
+
+            if (compressRequests && (length >= MIN_COMPRESS_SIZE) && (request.header("Content-Encoding") == null)
+                    && canCompress(host)) {
+                Buffer buffer = new Buffer();
+                BufferedSink sink = Okio.buffer(new GzipSink(buffer));
+                body.writeTo(sink);
+                sink.close();
+
+                Request compressed = request.newBuilder()
+                        .header("Content-Encoding", "gzip")
+                        .method(request.method(), RequestBody.create(body.contentType(), buffer.readByteString()))
+                        .build();
+
+                Response response = chain.proceed(compressed);
+                if (response.code() != HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+                    HttpMetrics.compressed(request.method(), request.url(), length, compressed.body().contentLength());
+                    return response;
+                }
+
+                App.log.info(host + " doesn't accept compressed requests, sending uncompressed");
+                response.close();
+                if (uncompressedHosts.size() >= MAX_UNCOMPRESSED_HOSTS) {
+                    uncompressedHosts.clear();
+                }
+                uncompressedHosts.put(host, System.currentTimeMillis() + UNCOMPRESSED_MILLIS);
+            }
+
+            return chain.proceed(request);
+        }
+
+        private static boolean canCompress(String host) {
+            Long until = uncompressedHosts.get(host);
+            if (until == null) {
+                return true;
+            } else if (until < System.currentTimeMillis()) {
+                uncompressedHosts.remove(host);
+                return true;
+            }
+            return false;
+        }
+    }
+
     static class UserAgentInterceptor implements Interceptor {
         @Override
         public Response intercept(Chain chain) throws IOException {
@@ -0,0 +1,334 @@
+package com.etesync.syncadapter;
+
+import android.support.annotation.NonNull;
+
+import com.etesync.syncadapter.journalmanager.BatchSizeController;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import okhttp3.Connection;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Per endpoint statistics of the requests made by this process: latency histograms, bytes on the wire, status codes,
+ * retries and connection reuse. Endpoints are grouped by method and kind (e.g. "GET entries") rather than by URL, so
+ * the number of them stays small.
+ * <p>
+ * The latency is the time until the response headers arrived, which is mostly the server's doing, while the body
+ * time is how long reading the body took, which includes whatever the reader did in between (e.g. applying entries
+ * while streaming them). Recording is lock free, so it doesn't serialize concurrent requests.
+ * <p>
+ * Bytes are counted as sent and received over the wire, i.e. compressed, along with how many bytes compressing
+ * request bodies saved and how many bytes the responses had after decompression.
+ * <p>
+ * Also reports the fetch and push batch sizes of the synced journals, as they decide how many requests a sync makes.
+ */
+public class HttpMetrics {
+    /**
+     * Upper bounds of the latency buckets, in milliseconds. The last bucket takes everything above.
+     */
+    private static final long[] BUCKETS = {50, 100, 250, 500, 1000, 2500, 5000, 10000};
+    /**
+     * Connections we've already seen, to tell reused ones apart. Cleared when it gets too big, which just means a few
+     * reused connections are counted as new.
+     */
+    private static final int MAX_CONNECTIONS = 256;
+
+    private static final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Boolean> connections = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, BatchSizeController[]> batchSizes = new ConcurrentHashMap<>();
+
+    public static final Interceptor interceptor = new MetricsInterceptor();
+    /**
+     * Application interceptor counting the response bytes as the caller reads them, after decompression.
+     */
+    public static final Interceptor decodedInterceptor = new DecodedInterceptor();
+
+    /**
+     * Records that a request is about to be made again, because a previous attempt failed.
+     */
+    public static void retried(@NonNull String method, @NonNull HttpUrl url) {
+        endpoint(method, url).retries.incrementAndGet();
+    }
+
+    /**
+     * Records that a request body of {@code length} bytes was sent gzipped as {@code compressedLength} bytes.
+     */
+    public static void compressed(@NonNull String method, @NonNull HttpUrl url, long length, long compressedLength) {
+        endpoint(method, url).bytesSaved.addAndGet(length - compressedLength);
+    }
+
+    /**
+     * Registers the batch size controllers used for syncing {@code journal}, whose current sizes are then reported.
+     */
+    public static void batchSizes(@NonNull String journal, @NonNull BatchSizeController fetch, @NonNull BatchSizeController push) {
+        batchSizes.put(journal, new BatchSizeController[]{fetch, push});
+    }
+
+    public static void reset() {
+        endpoints.clear();
+        batchSizes.clear();
+    }
+
+    /**
+     * @return a human readable report of all the endpoints and batch sizes, or an empty string if nothing was synced.
+     */
+    @NonNull
+    public static String report() {
+        List<String> names = new ArrayList<>(endpoints.keySet());
+        Collections.sort(names);
+
+        StringBuilder ret = new StringBuilder();
+        for (String name : names) {
+            ret.append(name).append(": ").append(endpoints.get(name)).append("\n");
+        }
+
+        List<String> journals = new ArrayList<>(batchSizes.keySet());
+        Collections.sort(journals);
+        for (String journal : journals) {
+            BatchSizeController[] sizes = batchSizes.get(journal);
+            ret.append("batch sizes of ").append(journal).append(": fetch ").append(sizes[0])
+                    .append(", push ").append(sizes[1]).append("\n");
+        }
+        return ret.toString();
+    }
+
+    private static Endpoint endpoint(String method, HttpUrl url) {
+        String name = method + " " + endpointKind(url.pathSegments());
+        Endpoint ret = endpoints.get(name);
+        if (ret == null) {
+            Endpoint endpoint = new Endpoint();
+            ret = endpoints.putIfAbsent(name, endpoint);
+            if (ret == null) {
+                ret = endpoint;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Maps the path to one of the API's endpoints, leaving out journal uids and user names.
+     */
+    private static String endpointKind(List<String> segments) {
+        List<String> path = new ArrayList<>(segments);
+        path.removeAll(Collections.singleton(""));
+
+        if ((path.size() >= 2) && path.get(0).equals("api") && path.get(1).startsWith("v")) {
+            path = path.subList(2, path.size());
+            if (path.isEmpty()) {
+                return "api";
+            } else if (path.get(0).equals("journals")) {
+                switch (path.size()) {
+                    case 1:
+                        return "journals";
+                    case 2:
+                        return "journal";
+                    default:
+                        return path.get(2);
+                }
+            }
+            return path.get(0);
+        }
+
+        return path.isEmpty() ? "/" : path.get(0);
+    }
+
+    private static class Endpoint {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong reusedConnections = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+        final AtomicLong bytesSaved = new AtomicLong();
+        final AtomicLong bytesDecoded = new AtomicLong();
+        final AtomicLong latencyTotal = new AtomicLong();
+        final AtomicLong latencyMax = new AtomicLong();
+        final AtomicLong bodyTimeTotal = new AtomicLong();
+        final AtomicLongArray latencies = new AtomicLongArray(BUCKETS.length + 1);
+        final ConcurrentMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+
+        void onResponse(int status, long latency) {
+            latencyTotal.addAndGet(latency);
+            long max;
+            do {
+                max = latencyMax.get();
+            } while ((latency > max) && !latencyMax.compareAndSet(max, latency));
+
+            int bucket = 0;
+            while ((bucket < BUCKETS.length) && (latency > BUCKETS[bucket])) {
+                bucket++;
+            }
+            latencies.incrementAndGet(bucket);
+
+            AtomicLong count = statuses.get(status);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = statuses.putIfAbsent(status, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            long requests = this.requests.get();
+            long responses = requests - failures.get();
+            StringBuilder ret = new StringBuilder();
+            ret.append(String.format(Locale.US, "%d requests, %d failed, %d retries, %d on reused connections",
+                    requests, failures.get(), retries.get(), reusedConnections.get()));
+            ret.append(String.format(Locale.US, "\n  bytes: %d sent (%d saved by compression), %d received (%d decompressed)",
+                    bytesSent.get(), bytesSaved.get(), bytesReceived.get(), bytesDecoded.get()));
+            if (responses > 0) {
+                ret.append(String.format(Locale.US, "\n  latency: avg %d ms, max %d ms; body: avg %d ms",
+                        latencyTotal.get() / responses, latencyMax.get(), bodyTimeTotal.get() / responses));
+
+                ret.append("\n  latency histogram:");
+                for (int i = 0; i < latencies.length(); i++) {
+                    ret.append((i < BUCKETS.length) ? (" <=" + BUCKETS[i]) : (" >" + BUCKETS[BUCKETS.length - 1]))
+                            .append("ms: ").append(latencies.get(i));
+                }
+
+                ret.append("\n  status codes:");
+                for (Map.Entry<Integer, AtomicLong> status : statuses.entrySet()) {
+                    ret.append(" ").append(status.getKey()).append(": ").append(status.getValue().get());
+                }
+            }
+            return ret.toString();
+        }
+    }
+
+    /**
+     * Network interceptor, so it sees every attempt made over the wire along with its connection, and the bytes
+     * as they are sent and received (i.e. compressed).
+     */
+    private static class MetricsInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            Endpoint endpoint = endpoint(request.method(), request.url());
+            endpoint.requests.incrementAndGet();
+
+            Connection connection = chain.connection();
+            if (connection != null) {
+                Socket socket = connection.socket();
+                String key = System.identityHashCode(connection) + ":" + socket.getLocalPort();
+                if (connections.putIfAbsent(key, Boolean.TRUE) != null) {
+                    endpoint.reusedConnections.incrementAndGet();
+                } else if (connections.size() > MAX_CONNECTIONS) {
+                    connections.clear();
+                }
+            }
+
+            if ((request.body() != null) && (request.body().contentLength() > 0)) {
+                endpoint.bytesSent.addAndGet(request.body().contentLength());
+            }
+
+            long start = System.currentTimeMillis();
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                endpoint.failures.incrementAndGet();
+                throw e;
+            }
+            long now = System.currentTimeMillis();
+            endpoint.onResponse(response.code(), now - start);
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                return response;
+            }
+            Source source = new MeasuringSource(body.source(), endpoint, now);
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+                    .build();
+        }
+    }
+
+    private static class DecodedInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            Response response = chain.proceed(request);
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                return response;
+            }
+            final Endpoint endpoint = endpoint(request.method(), request.url());
+            Source source = new ForwardingSource(body.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        endpoint.bytesDecoded.addAndGet(read);
+                    }
+                    return read;
+                }
+            };
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+                    .build();
+        }
+    }
+
+    /**
+     * Counts the bytes read, and how long it took until the body was read completely or closed.
+     */
+    private static class MeasuringSource extends ForwardingSource {
+        private final Endpoint endpoint;
+        private final long start;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        MeasuringSource(Source delegate, Endpoint endpoint, long start) {
+            super(delegate);
+            this.endpoint = endpoint;
+            this.start = start;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read > 0) {
+                endpoint.bytesReceived.addAndGet(read);
+            } else if (read == -1) {
+                finish();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            super.close();
+        }
+
+        private void finish() {
+            if (done.compareAndSet(false, true)) {
+                endpoint.bodyTimeTotal.addAndGet(System.currentTimeMillis() - start);
+            }
+        }
+    }
+}
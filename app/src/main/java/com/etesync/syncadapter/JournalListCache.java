@@ -0,0 +1,155 @@
+package com.etesync.syncadapter;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.util.Pair;
+
+import com.etesync.syncadapter.journalmanager.Crypto;
+import com.etesync.syncadapter.journalmanager.Exceptions;
+import com.etesync.syncadapter.journalmanager.JournalManager;
+import com.etesync.syncadapter.model.CollectionInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The verified and decrypted journal list of each account, shared by the address book and calendar sync adapters
+ * (which are usually triggered together). It lives in the sync adapters' process, the UI only changes journals and
+ * reads the collections from the database, so it passes changes on with {@link #invalidate(Context, String)} and
+ * {@link #clear(Context)}.
+ * <p>
+ * A cached list is used as is for {@link #TTL}, after which it's revalidated with the server's ETag, if any.
+ * Concurrent requests for the same account wait for a single refresh instead of each listing the journals.
+ */
+public class JournalListCache {
+    public static final long TTL = TimeUnit.SECONDS.toMillis(60);
+
+    private static final String EXTRA_ACCOUNT_NAME = "accountName";
+
+    private static final Map<String, JournalListCache> caches = new HashMap<>();
+
+    private List<CachedJournal> journals = null;
+    private String etag = null;
+    private long fetched = 0;
+
+    private JournalListCache() {
+    }
+
+    public static synchronized JournalListCache get(String accountName) {
+        JournalListCache ret = caches.get(accountName);
+        if (ret == null) {
+            ret = new JournalListCache();
+            caches.put(accountName, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Forces the next {@link #getCollections} of the account to revalidate with the server, from any process.
+     */
+    public static void invalidate(Context context, String accountName) {
+        context.sendBroadcast(new Intent(context, InvalidateReceiver.class).putExtra(EXTRA_ACCOUNT_NAME, accountName));
+    }
+
+    /**
+     * Drops everything, e.g. because the keys needed to decrypt the journals changed, from any process.
+     */
+    public static void clear(Context context) {
+        context.sendBroadcast(new Intent(context, InvalidateReceiver.class));
+    }
+
+    private static synchronized void clearAll() {
+        caches.clear();
+    }
+
+    public synchronized void invalidate() {
+        fetched = 0;
+    }
+
+    /**
+     * Returns the journals of the given type along with freshly parsed collection infos, which the caller can modify.
+     *
+     * @param maxAge the maximum age in milliseconds of a cached list that's returned without revalidation.
+     */
+    public synchronized List<Pair<JournalManager.Journal, CollectionInfo>> getCollections(
+            AccountSettings settings, JournalManager journalManager, CollectionInfo.Type type, long maxAge)
+            throws Exceptions.HttpException, Exceptions.IntegrityException, Exceptions.GenericCryptoException, InvalidAccountException {
+        long now = System.currentTimeMillis();
+        if ((journals == null) || (now - fetched > maxAge)) {
+            refresh(settings, journalManager);
+            fetched = System.currentTimeMillis();
+        } else {
+            App.log.fine("Using cached journal list");
+        }
+
+        List<Pair<JournalManager.Journal, CollectionInfo>> ret = new LinkedList<>();
+        for (CachedJournal cached : journals) {
+            CollectionInfo info = CollectionInfo.fromJson(cached.content);
+            info.updateFromJournal(cached.journal);
+
+            if (info.type.equals(type)) {
+                ret.add(new Pair<>(cached.journal, info));
+            }
+        }
+        return ret;
+    }
+
+    private void refresh(AccountSettings settings, JournalManager journalManager)
+            throws Exceptions.HttpException, Exceptions.IntegrityException, Exceptions.GenericCryptoException, InvalidAccountException {
+        JournalManager.ListResult result = journalManager.list((journals != null) ? etag : null);
+        if (result.isNotModified()) {
+            App.log.info("Journal list not modified");
+            return;
+        }
+
+        List<CachedJournal> decrypted = new ArrayList<>(result.getJournals().size());
+        for (JournalManager.Journal journal : result.getJournals()) {
+            Crypto.CryptoManager crypto;
+            if (journal.getKey() != null) {
+                crypto = Crypto.CryptoManagerCache.get(journal.getUid(), journal.getVersion(), settings.getKeyPair(), journal.getKey());
+            } else {
+                crypto = Crypto.CryptoManagerCache.get(journal.getVersion(), settings.password(), journal.getUid());
+            }
+
+            journal.verify(crypto);
+
+            decrypted.add(new CachedJournal(journal, journal.getContent(crypto)));
+        }
+
+        journals = decrypted;
+        etag = result.getEtag();
+    }
+
+    /**
+     * Runs in the sync adapters' process, see {@link #invalidate(Context, String)} and {@link #clear(Context)}.
+     */
+    public static class InvalidateReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String accountName = intent.getStringExtra(EXTRA_ACCOUNT_NAME);
+            if (accountName != null) {
+                App.log.info("Invalidating cached journal list of " + accountName);
+                get(accountName).invalidate();
+            } else {
+                App.log.info("Clearing cached journal lists and crypto managers");
+                clearAll();
+                Crypto.CryptoManagerCache.invalidate();
+            }
+        }
+    }
+
+    private static class CachedJournal {
+        final JournalManager.Journal journal;
+        final String content;
+
+        CachedJournal(JournalManager.Journal journal, String content) {
+            this.journal = journal;
+            this.content = content;
+        }
+    }
+}
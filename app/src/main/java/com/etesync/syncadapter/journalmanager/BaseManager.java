@@ -2,10 +2,10 @@ package com.etesync.syncadapter.journalmanager;
 
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.GsonHelper;
+import com.etesync.syncadapter.HttpMetrics;
 
 import org.apache.commons.codec.Charsets;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.logging.Level;
@@ -21,25 +21,72 @@ import okhttp3.Response;
 
 abstract class BaseManager {
     final static protected MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    final static private int HTTP_TOO_MANY_REQUESTS = 429;
 
     protected HttpUrl remote;
     protected OkHttpClient client;
 
+    protected RetryPolicy retryPolicy = RetryPolicy.getDefault();
+
+    /**
+     * Executes the request. Idempotent requests are retried according to {@link #retryPolicy} on connection errors
+     * and temporary server errors, and no request is made while the host's {@link CircuitBreaker} is open. The
+     * breaker counts a request as failed once, after its retries ran out. Being rate limited (429) doesn't count, as
+     * the server is up, and is reported with the server's Retry-After like a 503.
+     */
     Response newCall(Request request) throws Exceptions.HttpException {
+        CircuitBreaker breaker = CircuitBreaker.forHost(request.url().host());
+        boolean idempotent = isIdempotent(request);
+
         Response response;
-        try {
-            response = client.newCall(request).execute();
-        } catch (IOException e) {
-            App.log.log(Level.SEVERE, "Failed while connecting to server", e);
-            throw new Exceptions.ServiceUnavailableException("[" + e.getClass().getName() + "] " + e.getLocalizedMessage());
+        for (int attempt = 0; ; attempt++) {
+            breaker.check();
+
+            try {
+                response = client.newCall(request).execute();
+            } catch (IOException e) {
+                if (idempotent && retryPolicy.canRetry(attempt, 0)) {
+                    App.log.log(Level.WARNING, "Failed while connecting to server, retrying", e);
+                    HttpMetrics.retried(request.method(), request.url());
+                    retryPolicy.sleep(attempt, 0);
+                    continue;
+                }
+
+                App.log.log(Level.SEVERE, "Failed while connecting to server", e);
+                breaker.onFailure();
+                throw new Exceptions.ServiceUnavailableException("[" + e.getClass().getName() + "] " + e.getLocalizedMessage());
+            }
+
+            if (!isTemporaryFailure(response.code())) {
+                breaker.onSuccess();
+                break;
+            }
+
+            long retryAfter = RetryPolicy.getRetryAfterMillis(response);
+            if (!idempotent || !retryPolicy.canRetry(attempt, retryAfter)) {
+                if (response.code() != HTTP_TOO_MANY_REQUESTS) {
+                    breaker.onFailure();
+                }
+                break;
+            }
+
+            App.log.warning("Server replied " + response.code() + ", retrying");
+            HttpMetrics.retried(request.method(), request.url());
+            response.close();
+            retryPolicy.sleep(attempt, retryAfter);
         }
 
-        if (!response.isSuccessful()) {
+        // Only conditional requests get a 304, and those handle it themselves
+        if (!response.isSuccessful() && (response.code() != HttpURLConnection.HTTP_NOT_MODIFIED)) {
             ApiError apiError = GsonHelper.gson.fromJson(response.body().charStream(), ApiError.class);
 
             switch (response.code()) {
                 case HttpURLConnection.HTTP_UNAVAILABLE:
                     throw new Exceptions.ServiceUnavailableException(response, "Service unavailable");
+                case HTTP_TOO_MANY_REQUESTS:
+                    throw new Exceptions.ServiceUnavailableException(response, "Too many requests");
+                case HttpURLConnection.HTTP_CONFLICT:
+                    throw new Exceptions.ConflictException(response, apiError.detail);
                 case HttpURLConnection.HTTP_UNAUTHORIZED:
                     throw new Exceptions.UnauthorizedException(response, "Unauthorized auth token");
                 case HttpURLConnection.HTTP_FORBIDDEN:
@@ -56,6 +103,15 @@ abstract class BaseManager {
         return response;
     }
 
+    private static boolean isIdempotent(Request request) {
+        return request.method().equals("GET") || request.method().equals("HEAD");
+    }
+
+    private static boolean isTemporaryFailure(int code) {
+        return (code == HttpURLConnection.HTTP_BAD_GATEWAY) || (code == HttpURLConnection.HTTP_UNAVAILABLE)
+                || (code == HttpURLConnection.HTTP_GATEWAY_TIMEOUT) || (code == HTTP_TOO_MANY_REQUESTS);
+    }
+
     static class ApiError {
         String detail;
         String code;
@@ -75,8 +131,13 @@ abstract class BaseManager {
             return uid;
         }
 
-        public String getContent(Crypto.CryptoManager crypto) {
-            return new String(crypto.decrypt(content), Charsets.UTF_8);
+        public String getContent(Crypto.CryptoManager crypto) throws Exceptions.IntegrityException {
+            byte[] buf = new byte[crypto.getDecryptOutputSize(content.length)];
+            int len = crypto.decrypt(content, 0, content.length, buf, 0);
+            if (len < 0) {
+                throw new Exceptions.IntegrityException("Failed decrypting content of " + uid);
+            }
+            return new String(buf, 0, len, Charsets.UTF_8);
         }
 
         void setContent(Crypto.CryptoManager crypto, String content) {
@@ -84,20 +145,10 @@ abstract class BaseManager {
         }
 
         byte[] calculateHmac(Crypto.CryptoManager crypto, String uuid) {
-            ByteArrayOutputStream hashContent = new ByteArrayOutputStream();
-
-            try {
-                if (uuid != null) {
-                    hashContent.write(uuid.getBytes(Charsets.UTF_8));
-                }
-
-                hashContent.write(content);
-            } catch (IOException e) {
-                // Can never happen, but just in case, return a bad hmac
-                return "DEADBEEFDEADBEEFDEADBEEFDEADBEEF".getBytes();
-            }
-
-            return crypto.hmac(hashContent.toByteArray());
+            byte[] ret = new byte[Crypto.CryptoManager.HMAC_SIZE];
+            byte[] prefix = (uuid != null) ? uuid.getBytes(Charsets.UTF_8) : null;
+            crypto.hmac(prefix, content, 0, content.length, ret, 0);
+            return ret;
         }
 
         protected Base() {
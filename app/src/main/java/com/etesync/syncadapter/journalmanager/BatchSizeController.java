@@ -0,0 +1,91 @@
+package com.etesync.syncadapter.journalmanager;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the number of entries to fetch or push per request. The size grows while full batches complete faster than
+ * the target duration, shrinks when they take longer, is capped so a batch stays under the target number of bytes
+ * given the observed average entry size, and is halved on errors a smaller batch may avoid. It always stays within
+ * the given bounds.
+ * <p>
+ * Thread safe, so a single instance can be shared by a download thread and the sync thread.
+ */
+public class BatchSizeController {
+    private static final double MAX_GROWTH = 2.0;
+    private static final double ENTRY_SIZE_WEIGHT = 0.3;
+
+    private final int min;
+    private final int max;
+    private final long targetMillis;
+    private final long targetBytes;
+
+    private int size;
+    private double entrySize = 0;
+
+    public BatchSizeController(int initial, int min, int max, long targetMillis, long targetBytes) {
+        this.min = min;
+        this.max = max;
+        this.targetMillis = targetMillis;
+        this.targetBytes = targetBytes;
+        this.size = clamp(initial);
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes of content a batch should stay under.
+     */
+    public long getTargetBytes() {
+        return targetBytes;
+    }
+
+    /**
+     * Records a successful request for {@code entries} which took {@code millis}, after having asked for
+     * {@code requested} entries.
+     */
+    public synchronized void onSuccess(int requested, List<JournalEntryManager.Entry> entries, long millis) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        long bytes = 0;
+        for (JournalEntryManager.Entry entry : entries) {
+            bytes += entry.getContent().length;
+        }
+        double batchEntrySize = (double) bytes / entries.size();
+        entrySize = (entrySize == 0) ? batchEntrySize : (ENTRY_SIZE_WEIGHT * batchEntrySize + (1 - ENTRY_SIZE_WEIGHT) * entrySize);
+
+        double next = size * ((double) targetMillis / Math.max(millis, 1));
+        // A short batch says nothing about whether a bigger one would have been fast enough
+        if (entries.size() < requested) {
+            next = Math.min(next, size);
+        }
+        next = Math.max(Math.min(next, size * MAX_GROWTH), size / MAX_GROWTH);
+        next = Math.min(next, targetBytes / entrySize);
+
+        size = clamp((int) next);
+    }
+
+    /**
+     * Records a failed request. Only shrinks the size on errors a smaller batch may avoid: timeouts and other
+     * connection errors, 413 (request entity too large) and server errors. Others, like 401, 403 or 404, would fail
+     * the same at any size.
+     */
+    public synchronized void onError(Exceptions.HttpException e) {
+        if ((e.status == -1) || (e.status == 413) || (e.status >= 500)) {
+            size = clamp(size / 2);
+        }
+    }
+
+    private int clamp(int value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d entries (%d-%d, ~%d bytes per entry)", size, min, max, (long) entrySize);
+    }
+}
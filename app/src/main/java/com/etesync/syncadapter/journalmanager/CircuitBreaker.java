@@ -0,0 +1,71 @@
+package com.etesync.syncadapter.journalmanager;
+
+import com.etesync.syncadapter.App;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops talking to a host after a run of consecutive failed requests (connection errors and 502/503/504 still
+ * failing after their retries, see {@link BaseManager#newCall}), so the remaining collections of a sync fail fast
+ * instead of each waiting for their own timeouts and retries. Once the open period is over, requests go through
+ * again and the first failure reopens the breaker, while a success closes it.
+ */
+class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private static final Map<String, CircuitBreaker> breakers = new HashMap<>();
+
+    private final String host;
+    private final long openMillis;
+    private int failures = 0;
+    private long openUntil = 0;
+
+    CircuitBreaker(String host, long openMillis) {
+        this.host = host;
+        this.openMillis = openMillis;
+    }
+
+    static synchronized CircuitBreaker forHost(String host) {
+        CircuitBreaker ret = breakers.get(host);
+        if (ret == null) {
+            ret = new CircuitBreaker(host, OPEN_MILLIS);
+            breakers.put(host, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Forgets the failures of all hosts.
+     */
+    static synchronized void reset() {
+        breakers.clear();
+    }
+
+    synchronized void check() throws Exceptions.ServiceUnavailableException {
+        long remaining = openUntil - System.currentTimeMillis();
+        if (remaining > 0) {
+            Exceptions.ServiceUnavailableException e = new Exceptions.ServiceUnavailableException(
+                    "Too many failures talking to " + host + ", not trying again for now");
+            e.retryAfter = TimeUnit.MILLISECONDS.toSeconds(remaining) + 1;
+            throw e;
+        }
+    }
+
+    synchronized void onSuccess() {
+        failures = 0;
+        openUntil = 0;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (failures >= FAILURE_THRESHOLD) {
+            if (openUntil == 0) {
+                App.log.warning("Too many failures talking to " + host + ", pausing requests");
+            }
+            openUntil = System.currentTimeMillis() + openMillis;
+        }
+    }
+}
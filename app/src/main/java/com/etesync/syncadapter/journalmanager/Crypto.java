@@ -7,27 +7,19 @@ import com.etesync.syncadapter.journalmanager.util.ByteUtil;
 import com.etesync.syncadapter.utils.Base64;
 
 import org.apache.commons.codec.Charsets;
-import org.apache.commons.lang3.ArrayUtils;
 import org.spongycastle.asn1.pkcs.PrivateKeyInfo;
 import org.spongycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.spongycastle.crypto.AsymmetricBlockCipher;
 import org.spongycastle.crypto.AsymmetricCipherKeyPair;
-import org.spongycastle.crypto.BufferedBlockCipher;
-import org.spongycastle.crypto.CipherParameters;
 import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.digests.SHA256Digest;
 import org.spongycastle.crypto.encodings.OAEPEncoding;
-import org.spongycastle.crypto.engines.AESEngine;
 import org.spongycastle.crypto.engines.RSAEngine;
 import org.spongycastle.crypto.generators.RSAKeyPairGenerator;
 import org.spongycastle.crypto.generators.SCrypt;
 import org.spongycastle.crypto.macs.HMac;
-import org.spongycastle.crypto.modes.CBCBlockCipher;
-import org.spongycastle.crypto.paddings.BlockCipherPadding;
-import org.spongycastle.crypto.paddings.PKCS7Padding;
-import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.spongycastle.crypto.params.AsymmetricKeyParameter;
 import org.spongycastle.crypto.params.KeyParameter;
-import org.spongycastle.crypto.params.ParametersWithIV;
 import org.spongycastle.crypto.params.RSAKeyGenerationParameters;
 import org.spongycastle.crypto.util.PrivateKeyFactory;
 import org.spongycastle.crypto.util.PrivateKeyInfoFactory;
@@ -37,10 +29,14 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.math.BigInteger;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -78,11 +74,20 @@ public class Crypto {
 
     public static class AsymmetricCryptoManager {
         private final AsymmetricKeyPair keyPair;
+        private AsymmetricKeyParameter privateKey = null;
 
         public AsymmetricCryptoManager(AsymmetricKeyPair keyPair) {
             this.keyPair = keyPair;
         }
 
+        private synchronized AsymmetricKeyParameter getPrivateKey() throws IOException {
+            // Parsing the key is expensive, so only do it once per manager.
+            if (privateKey == null) {
+                privateKey = PrivateKeyFactory.createKey(keyPair.getPrivateKey());
+            }
+            return privateKey;
+        }
+
         public byte[] encrypt(byte[] pubkey, byte[] content) {
             AsymmetricBlockCipher cipher = new RSAEngine();
             cipher = new OAEPEncoding(cipher);
@@ -103,7 +108,7 @@ public class Crypto {
             AsymmetricBlockCipher cipher = new RSAEngine();
             cipher = new OAEPEncoding(cipher);
             try {
-                cipher.init(false, PrivateKeyFactory.createKey(keyPair.getPrivateKey()));
+                cipher.init(false, getPrivateKey());
                 return cipher.processBlock(cipherText, 0, cipherText.length);
             } catch (IOException e) {
                 e.printStackTrace();
@@ -142,7 +147,7 @@ public class Crypto {
     public static class CryptoManager {
         final static int HMAC_SIZE = 256 / 8; // hmac256 in bytes
 
-        private SecureRandom _random = null;
+        private RandomBytes _random = null;
         @Getter
         private final byte version;
         private byte[] cipherKey;
@@ -155,7 +160,10 @@ public class Crypto {
         }
 
         public CryptoManager(int version, AsymmetricKeyPair keyPair, byte[] encryptedKey) {
-            Crypto.AsymmetricCryptoManager cryptoManager = new Crypto.AsymmetricCryptoManager(keyPair);
+            this(version, new Crypto.AsymmetricCryptoManager(keyPair), encryptedKey);
+        }
+
+        CryptoManager(int version, AsymmetricCryptoManager cryptoManager, byte[] encryptedKey) {
             derivedKey = cryptoManager.decrypt(encryptedKey);
 
             this.version = (byte) version;
@@ -177,76 +185,155 @@ public class Crypto {
             setDerivedKey(derivedKey);
         }
 
-        private static final int blockSize = 16; // AES's block size in bytes
+        private static final int blockSize = CryptoBackend.BLOCK_SIZE;
+
+        /**
+         * One keyed hmac per thread, as they aren't thread safe. Along with the backend it was created by, so it's
+         * rebuilt after {@link CryptoBackend#setPreferred(String)} switched to another one.
+         */
+        private final ThreadLocal<BackendHmac> hmacCache = new ThreadLocal<>();
+
+        private static class BackendHmac {
+            final CryptoBackend backend;
+            final CryptoBackend.Hmac hmac;
+
+            BackendHmac(CryptoBackend backend, CryptoBackend.Hmac hmac) {
+                this.backend = backend;
+                this.hmac = hmac;
+            }
+        }
 
-        private BufferedBlockCipher getCipher(byte[] iv, boolean encrypt) {
-            KeyParameter key = new KeyParameter(cipherKey);
-            CipherParameters params = new ParametersWithIV(key, iv);
+        private CryptoBackend.Hmac getHmac() {
+            CryptoBackend backend = CryptoBackend.get();
+            BackendHmac cached = hmacCache.get();
+            if ((cached == null) || (cached.backend != backend)) {
+                cached = new BackendHmac(backend, backend.newHmac(hmacKey));
+                hmacCache.set(cached);
+            }
+            return cached.hmac;
+        }
 
-            BlockCipherPadding padding = new PKCS7Padding();
-            BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(
-                    new CBCBlockCipher(new AESEngine()), padding);
-            cipher.reset();
-            cipher.init(encrypt, params);
+        /**
+         * @return the size of the buffer needed to hold the decryption of {@code length} bytes of encrypted data.
+         */
+        public int getDecryptOutputSize(int length) {
+            return Math.max(length - blockSize, 0);
+        }
 
-            return cipher;
+        /**
+         * @return the size of the buffer needed to hold the encryption of {@code length} bytes of data.
+         */
+        public int getEncryptOutputSize(int length) {
+            return blockSize + (length / blockSize + 1) * blockSize;
         }
 
         byte[] decrypt(byte[] _data) {
-            byte[] iv = Arrays.copyOfRange(_data, 0, blockSize);
-            byte[] data = Arrays.copyOfRange(_data, blockSize, _data.length);
+            byte[] buf = new byte[getDecryptOutputSize(_data.length)];
+            int len = decrypt(_data, 0, _data.length, buf, 0);
+            if (len < 0) {
+                return null;
+            }
 
-            BufferedBlockCipher cipher = getCipher(iv, false);
+            // remove padding
+            return (len == buf.length) ? buf : Arrays.copyOf(buf, len);
+        }
 
-            byte[] buf = new byte[cipher.getOutputSize(data.length)];
-            int len = cipher.processBytes(data, 0, data.length, buf, 0);
+        /**
+         * Decrypts {@code length} bytes of {@code in} (IV followed by the ciphertext) into {@code out}.
+         *
+         * @return the length of the plaintext written to {@code out}, or -1 if the ciphertext is invalid.
+         */
+        int decrypt(byte[] in, int offset, int length, byte[] out, int outOffset) {
             try {
-                len += cipher.doFinal(buf, len);
-            } catch (InvalidCipherTextException e) {
+                return CryptoBackend.get().cipher(false, cipherKey, in, offset,
+                        in, offset + blockSize, length - blockSize, out, outOffset);
+            } catch (GeneralSecurityException e) {
                 e.printStackTrace();
-                App.log.severe("Invalid ciphertext: " + Base64.encodeToString(_data, Base64.NO_WRAP));
-                return null;
+                App.log.severe("Invalid ciphertext: " + Base64.encodeToString(in, offset, length, Base64.NO_WRAP));
+                return -1;
             }
+        }
 
-            // remove padding
-            byte[] out = new byte[len];
-            System.arraycopy(buf, 0, out, 0, len);
+        /**
+         * Decrypts the remaining bytes of {@code in} into {@code out}, advancing the position of both buffers.
+         *
+         * @return the length of the plaintext written to {@code out}, or -1 if the ciphertext is invalid.
+         */
+        int decrypt(ByteBuffer in, ByteBuffer out) {
+            if (!in.hasArray() || !out.hasArray()) {
+                byte[] data = new byte[in.remaining()];
+                in.get(data);
+                byte[] ret = decrypt(data);
+                if (ret == null) {
+                    return -1;
+                }
+                out.put(ret);
+                return ret.length;
+            }
 
-            return out;
+            int len = decrypt(in.array(), in.arrayOffset() + in.position(), in.remaining(),
+                    out.array(), out.arrayOffset() + out.position());
+            if (len >= 0) {
+                in.position(in.limit());
+                out.position(out.position() + len);
+            }
+            return len;
         }
 
         byte[] encrypt(byte[] data) {
-            byte[] iv = new byte[blockSize];
-            getRandom().nextBytes(iv);
+            byte[] buf = new byte[getEncryptOutputSize(data.length)];
+            int len = encrypt(data, 0, data.length, buf, 0);
+            if (len < 0) {
+                return null;
+            }
 
-            BufferedBlockCipher cipher = getCipher(iv, true);
+            return buf;
+        }
+
+        /**
+         * Encrypts {@code length} bytes of {@code in} into {@code out}, prefixed by a random IV.
+         *
+         * @return the length of the data written to {@code out}, or -1 on failure.
+         */
+        int encrypt(byte[] in, int offset, int length, byte[] out, int outOffset) {
+            getRandom().nextBytes(out, outOffset, blockSize);
 
-            byte[] buf = new byte[cipher.getOutputSize(data.length) + blockSize];
-            System.arraycopy(iv, 0, buf, 0, iv.length);
-            int len = iv.length + cipher.processBytes(data, 0, data.length, buf, iv.length);
             try {
-                cipher.doFinal(buf, len);
-            } catch (InvalidCipherTextException e) {
-                App.log.severe("Invalid ciphertext: " + Base64.encodeToString(data, Base64.NO_WRAP));
+                return blockSize + CryptoBackend.get().cipher(true, cipherKey, out, outOffset,
+                        in, offset, length, out, outOffset + blockSize);
+            } catch (GeneralSecurityException e) {
+                App.log.severe("Invalid ciphertext: " + Base64.encodeToString(in, offset, length, Base64.NO_WRAP));
                 e.printStackTrace();
-                return null;
+                return -1;
             }
-
-            return buf;
         }
 
         byte[] hmac(byte[] data) {
-            if (version == 1) {
-                return hmac256(hmacKey, data);
-            } else {
+            byte[] ret = new byte[HMAC_SIZE];
+            hmac(null, data, 0, data.length, ret, 0);
+            return ret;
+        }
+
+        /**
+         * Calculates the hmac of {@code prefix} (if not null) followed by {@code length} bytes of {@code data} into
+         * {@code out}, without concatenating them first.
+         */
+        void hmac(byte[] prefix, byte[] data, int offset, int length, byte[] out, int outOffset) {
+            CryptoBackend.Hmac hmac = getHmac();
+            if (prefix != null) {
+                hmac.update(prefix, 0, prefix.length);
+            }
+            hmac.update(data, offset, length);
+            if (version != 1) {
                 // Starting from version 2 we hmac the version too.
-                return hmac256(hmacKey, ArrayUtils.add(data, version));
+                hmac.update(version);
             }
+            hmac.doFinal(out, outOffset);
         }
 
-        private SecureRandom getRandom() {
+        private synchronized RandomBytes getRandom() {
             if (_random == null) {
-                _random = new SecureRandom();
+                _random = new RandomBytes(new SecureRandom());
             }
             return _random;
         }
@@ -267,7 +354,112 @@ public class Crypto {
         }
     }
 
-    static String sha256(String base) {
+    /**
+     * Process-wide cache of ready to use {@link CryptoManager}s, so we don't re-derive (or RSA decrypt) the keys of
+     * every journal on every sync. Entries are keyed by the journal uid, the version and a hash of the key material,
+     * so a changed password or key pair never hits a stale entry; {@link #invalidate()} drops them from memory.
+     */
+    public static class CryptoManagerCache {
+        private static final int MAX_ENTRIES = 128;
+        private static final int MAX_KEY_PAIRS = 4;
+
+        private static final Map<String, CryptoManager> managers = new LinkedHashMap<String, CryptoManager>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CryptoManager> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+        private static final Map<String, AsymmetricCryptoManager> asymmetricManagers = new LinkedHashMap<String, AsymmetricCryptoManager>(4, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AsymmetricCryptoManager> eldest) {
+                return size() > MAX_KEY_PAIRS;
+            }
+        };
+
+        private CryptoManagerCache() {
+        }
+
+        public static CryptoManager get(int version, @NonNull String keyBase64, @NonNull String salt) throws Exceptions.IntegrityException, Exceptions.VersionTooNewException {
+            String cacheKey = salt + ":" + version + ":" + toHex(sha256(keyBase64.getBytes(Charsets.UTF_8)));
+            CryptoManager ret;
+            synchronized (managers) {
+                ret = managers.get(cacheKey);
+            }
+
+            if (ret == null) {
+                ret = new CryptoManager(version, keyBase64, salt);
+                synchronized (managers) {
+                    managers.put(cacheKey, ret);
+                }
+            }
+
+            return ret;
+        }
+
+        public static CryptoManager get(@NonNull String uid, int version, @NonNull AsymmetricKeyPair keyPair, @NonNull byte[] encryptedKey) {
+            String keyPairHash = toHex(sha256(keyPair.getPublicKey()));
+            String cacheKey = uid + ":" + version + ":" + toHex(sha256(encryptedKey)) + ":" + keyPairHash;
+            CryptoManager ret;
+            synchronized (managers) {
+                ret = managers.get(cacheKey);
+            }
+
+            if (ret == null) {
+                AsymmetricCryptoManager asymmetricManager;
+                synchronized (asymmetricManagers) {
+                    asymmetricManager = asymmetricManagers.get(keyPairHash);
+                    if (asymmetricManager == null) {
+                        asymmetricManager = new AsymmetricCryptoManager(keyPair);
+                        asymmetricManagers.put(keyPairHash, asymmetricManager);
+                    }
+                }
+
+                ret = new CryptoManager(version, asymmetricManager, encryptedKey);
+                synchronized (managers) {
+                    managers.put(cacheKey, ret);
+                }
+            }
+
+            return ret;
+        }
+
+        /**
+         * Drops all of the cached keys, should be called when the password or the key pair change.
+         */
+        public static void invalidate() {
+            synchronized (managers) {
+                managers.clear();
+            }
+            synchronized (asymmetricManagers) {
+                asymmetricManagers.clear();
+            }
+        }
+    }
+
+    /**
+     * SecureRandom can only fill whole arrays, so we generate into a small scratch buffer and copy from it.
+     */
+    private static class RandomBytes {
+        private final SecureRandom random;
+        private final byte[] scratch = new byte[16];
+
+        RandomBytes(SecureRandom random) {
+            this.random = random;
+        }
+
+        synchronized void nextBytes(byte[] out, int offset, int length) {
+            while (length > 0) {
+                int chunk = Math.min(length, scratch.length);
+                random.nextBytes(scratch);
+                System.arraycopy(scratch, 0, out, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+    }
+
+    public static String sha256(String base) {
         return toHex(sha256(base.getBytes(Charsets.UTF_8)));
     }
 
@@ -0,0 +1,337 @@
+package com.etesync.syncadapter.journalmanager;
+
+import com.etesync.syncadapter.App;
+
+import org.spongycastle.crypto.BufferedBlockCipher;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.engines.AESEngine;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.paddings.PKCS7Padding;
+import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The primitives used by {@link Crypto.CryptoManager}: AES-CBC with PKCS#7 padding and HMAC-SHA256.
+ * <p>
+ * There are two implementations, the pure Java spongycastle one, and the platform's JCA provider which is usually
+ * backed by hardware AES. Unless overridden with {@link #setPreferred(String)}, the first call to {@link #get()}
+ * checks that the JCA provider produces the exact same output as spongycastle and then picks the faster of the two.
+ * Both are warmed up first and then timed in turns over several runs, comparing their medians, so JIT compilation,
+ * CPU frequency changes and whatever else runs at the same time don't decide the choice for the rest of the process.
+ */
+public abstract class CryptoBackend {
+    public static final String AUTO = "auto";
+    public static final String SPONGYCASTLE = "spongycastle";
+    public static final String JCA = "jca";
+
+    static final int BLOCK_SIZE = 16; // AES's block size in bytes
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 5;
+
+    private static String preferred = AUTO;
+    private static volatile CryptoBackend backend = null;
+
+    /**
+     * A keyed HMAC instance. Instances are not thread safe.
+     */
+    interface Hmac {
+        void update(byte[] in, int offset, int length);
+
+        void update(byte in);
+
+        void doFinal(byte[] out, int offset);
+    }
+
+    public abstract String getName();
+
+    /**
+     * Encrypts or decrypts {@code length} bytes of {@code in} with AES-CBC and PKCS#7 padding into {@code out}.
+     *
+     * @return the number of bytes written to {@code out}.
+     */
+    abstract int cipher(boolean encrypt, byte[] key, byte[] iv, int ivOffset,
+                        byte[] in, int offset, int length, byte[] out, int outOffset) throws GeneralSecurityException;
+
+    abstract Hmac newHmac(byte[] key);
+
+    /**
+     * Sets the backend to use: {@link #AUTO}, {@link #SPONGYCASTLE} or {@link #JCA}. Takes effect on the next {@link #get()}.
+     */
+    public static synchronized void setPreferred(String name) {
+        preferred = (name != null) ? name : AUTO;
+        backend = null;
+    }
+
+    public static CryptoBackend get() {
+        CryptoBackend ret = backend;
+        if (ret != null) {
+            return ret;
+        }
+
+        synchronized (CryptoBackend.class) {
+            if (backend == null) {
+                backend = select(preferred);
+                App.log.info("Using crypto backend: " + backend.getName());
+            }
+            return backend;
+        }
+    }
+
+    private static CryptoBackend select(String name) {
+        SpongyCastle spongyCastle = new SpongyCastle();
+        if (name.equals(SPONGYCASTLE)) {
+            return spongyCastle;
+        }
+
+        Jca jca = new Jca();
+        try {
+            selfTest(spongyCastle, jca);
+        } catch (Exception e) {
+            App.log.log(Level.WARNING, "JCA crypto backend failed self test, falling back to spongycastle", e);
+            return spongyCastle;
+        }
+
+        if (name.equals(JCA)) {
+            return jca;
+        }
+
+        try {
+            return isFaster(jca, spongyCastle) ? jca : spongyCastle;
+        } catch (GeneralSecurityException e) {
+            App.log.log(Level.WARNING, "Failed timing crypto backends, falling back to spongycastle", e);
+            return spongyCastle;
+        }
+    }
+
+    /**
+     * Makes sure both backends produce byte identical ciphertexts and hmacs, including the version suffix used by the
+     * hmacs of protocol version 2 and up.
+     */
+    static void selfTest(CryptoBackend reference, CryptoBackend candidate) throws GeneralSecurityException {
+        Random random = new Random(0);
+        byte[] key = new byte[32];
+        byte[] iv = new byte[BLOCK_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+
+        for (int size : new int[]{0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, 1000, 65536}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+
+            byte[] expected = new byte[size + BLOCK_SIZE];
+            byte[] actual = new byte[size + BLOCK_SIZE];
+            int expectedLen = reference.cipher(true, key, iv, 0, data, 0, size, expected, 0);
+            int actualLen = candidate.cipher(true, key, iv, 0, data, 0, size, actual, 0);
+            if ((expectedLen != actualLen) || !Arrays.equals(expected, actual)) {
+                throw new GeneralSecurityException("Encryption mismatch for size " + size);
+            }
+
+            byte[] decrypted = new byte[size + BLOCK_SIZE];
+            int decryptedLen = candidate.cipher(false, key, iv, 0, actual, 0, actualLen, decrypted, 0);
+            if ((decryptedLen != size) || !Arrays.equals(data, Arrays.copyOf(decrypted, decryptedLen))) {
+                throw new GeneralSecurityException("Decryption mismatch for size " + size);
+            }
+
+            for (int version = 1; version <= Constants.CURRENT_VERSION; version++) {
+                if (!Arrays.equals(hmac(reference, key, data, version), hmac(candidate, key, data, version))) {
+                    throw new GeneralSecurityException("Hmac mismatch for size " + size + " and version " + version);
+                }
+            }
+        }
+    }
+
+    private static byte[] hmac(CryptoBackend backend, byte[] key, byte[] data, int version) {
+        Hmac hmac = backend.newHmac(key);
+        byte[] ret = new byte[Crypto.CryptoManager.HMAC_SIZE];
+        hmac.update(data, 0, data.length);
+        if (version != 1) {
+            hmac.update((byte) version);
+        }
+        hmac.doFinal(ret, 0);
+        return ret;
+    }
+
+    /**
+     * @return whether {@code candidate}'s median run time is below {@code reference}'s. The runs alternate between
+     * the two, so a slow patch of the device affects both alike.
+     */
+    private static boolean isFaster(CryptoBackend candidate, CryptoBackend reference) throws GeneralSecurityException {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            timeRun(candidate);
+            timeRun(reference);
+        }
+
+        long[] candidateTimes = new long[TIMED_RUNS];
+        long[] referenceTimes = new long[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            candidateTimes[i] = timeRun(candidate);
+            referenceTimes[i] = timeRun(reference);
+        }
+        long candidateTime = median(candidateTimes);
+        long referenceTime = median(referenceTimes);
+
+        App.log.fine("Crypto backend " + candidate.getName() + " took " + (candidateTime / 1000) + "us, "
+                + reference.getName() + " took " + (referenceTime / 1000) + "us");
+        return candidateTime < referenceTime;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long timeRun(CryptoBackend backend) throws GeneralSecurityException {
+        final int size = 64 * 1024;
+        final int rounds = 4;
+        byte[] key = new byte[32];
+        byte[] iv = new byte[BLOCK_SIZE];
+        byte[] data = new byte[size];
+        byte[] out = new byte[size + BLOCK_SIZE];
+        byte[] decrypted = new byte[size + BLOCK_SIZE];
+        byte[] mac = new byte[Crypto.CryptoManager.HMAC_SIZE];
+        Hmac hmac = backend.newHmac(key);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            int len = backend.cipher(true, key, iv, 0, data, 0, size, out, 0);
+            backend.cipher(false, key, iv, 0, out, 0, len, decrypted, 0);
+            hmac.update(out, 0, len);
+            hmac.doFinal(mac, 0);
+        }
+        return System.nanoTime() - start;
+    }
+
+    static class SpongyCastle extends CryptoBackend {
+        /**
+         * The engines are expensive to build, so we keep one per thread and re-initialise it with the key and IV of
+         * every operation instead of building a new one each time.
+         */
+        private static final ThreadLocal<BufferedBlockCipher> cipherCache = new ThreadLocal<BufferedBlockCipher>() {
+            @Override
+            protected BufferedBlockCipher initialValue() {
+                return new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine()), new PKCS7Padding());
+            }
+        };
+
+        @Override
+        public String getName() {
+            return SPONGYCASTLE;
+        }
+
+        @Override
+        int cipher(boolean encrypt, byte[] key, byte[] iv, int ivOffset,
+                   byte[] in, int offset, int length, byte[] out, int outOffset) throws GeneralSecurityException {
+            BufferedBlockCipher cipher = cipherCache.get();
+            cipher.reset();
+            cipher.init(encrypt, new ParametersWithIV(new KeyParameter(key), iv, ivOffset, BLOCK_SIZE));
+
+            int len = cipher.processBytes(in, offset, length, out, outOffset);
+            try {
+                len += cipher.doFinal(out, outOffset + len);
+            } catch (InvalidCipherTextException e) {
+                throw new BadPaddingException(e.getMessage());
+            }
+
+            return len;
+        }
+
+        @Override
+        Hmac newHmac(byte[] key) {
+            final HMac hmac = new HMac(new SHA256Digest());
+            hmac.init(new KeyParameter(key));
+
+            return new Hmac() {
+                @Override
+                public void update(byte[] in, int offset, int length) {
+                    hmac.update(in, offset, length);
+                }
+
+                @Override
+                public void update(byte in) {
+                    hmac.update(in);
+                }
+
+                @Override
+                public void doFinal(byte[] out, int offset) {
+                    hmac.doFinal(out, offset);
+                }
+            };
+        }
+    }
+
+    static class Jca extends CryptoBackend {
+        private static final ThreadLocal<Cipher> cipherCache = new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                try {
+                    return Cipher.getInstance("AES/CBC/PKCS5Padding");
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+        @Override
+        public String getName() {
+            return JCA;
+        }
+
+        @Override
+        int cipher(boolean encrypt, byte[] key, byte[] iv, int ivOffset,
+                   byte[] in, int offset, int length, byte[] out, int outOffset) throws GeneralSecurityException {
+            Cipher cipher = cipherCache.get();
+            cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE,
+                    new SecretKeySpec(key, "AES"), new IvParameterSpec(iv, ivOffset, BLOCK_SIZE));
+
+            return cipher.doFinal(in, offset, length, out, outOffset);
+        }
+
+        @Override
+        Hmac newHmac(byte[] key) {
+            final Mac mac;
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return new Hmac() {
+                @Override
+                public void update(byte[] in, int offset, int length) {
+                    mac.update(in, offset, length);
+                }
+
+                @Override
+                public void update(byte in) {
+                    mac.update(in);
+                }
+
+                @Override
+                public void doFinal(byte[] out, int offset) {
+                    try {
+                        mac.doFinal(out, offset);
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+        }
+    }
+}
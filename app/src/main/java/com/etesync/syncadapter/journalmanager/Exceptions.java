@@ -25,6 +25,12 @@ public class Exceptions {
         }
     }
 
+    public static class ConflictException extends HttpException {
+        public ConflictException(Response response, String message) {
+            super(response, message);
+        }
+    }
+
     public static class ServiceUnavailableException extends HttpException {
         public long retryAfter;
 
@@ -35,7 +41,7 @@ public class Exceptions {
 
         public ServiceUnavailableException(Response response, String message) {
             super(response, message);
-            this.retryAfter = Long.valueOf(response.header("Retry-After", "0"));
+            this.retryAfter = RetryPolicy.getRetryAfter(response);
         }
     }
 
@@ -1,14 +1,34 @@
 package com.etesync.syncadapter.journalmanager;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.GsonHelper;
+import com.etesync.syncadapter.HttpMetrics;
 
+import lombok.Cleanup;
 import lombok.Getter;
+import okhttp3.Call;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -21,6 +41,19 @@ public class JournalEntryManager extends BaseManager {
     final String uid;
     final static private Type entryType = new TypeToken<List<Entry>>() {
     }.getType();
+    final static private TypeAdapter<Entry> entryAdapter = GsonHelper.gson.getAdapter(Entry.class);
+    /**
+     * Download threads of the {@link PageIterator}s, one per iterator. As many as collections may be synced at once,
+     * further iterators wait for a thread.
+     */
+    final static private int PREFETCH_THREADS = 4;
+    final static private ExecutorService prefetchExecutor;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        prefetchExecutor = executor;
+    }
 
 
     public JournalEntryManager(OkHttpClient httpClient, HttpUrl remote, String journal) {
@@ -36,7 +69,102 @@ public class JournalEntryManager extends BaseManager {
         this.client = httpClient;
     }
 
+    /**
+     * Callback for {@link #list(Crypto.CryptoManager, String, int, EntryCallback)}, called for every entry as soon
+     * as it has been downloaded and its HMAC verified.
+     */
+    public interface EntryCallback {
+        /**
+         * @return whether to go on reading. If false, the rest of the response is dropped.
+         */
+        boolean onEntry(Entry entry) throws Exceptions.IntegrityException;
+    }
+
+    /**
+     * Gets the entries of a page as they arrive, e.g. to start processing them while the rest of the page is still
+     * being downloaded, see {@link #list(Crypto.CryptoManager, String, int, EntryListener)}.
+     */
+    public interface EntryListener {
+        /**
+         * Called for every entry as soon as it has been downloaded and its HMAC verified.
+         */
+        void onEntry(Entry entry);
+
+        /**
+         * Called when the download of a page broke off midway, for the entries of the page already passed to
+         * {@link #onEntry(Entry)}. They are downloaded again as new objects.
+         */
+        void onDiscarded(List<Entry> entries);
+    }
+
+    /**
+     * Same as {@link #list(Crypto.CryptoManager, String, int, EntryCallback)}, but returns the whole page. As the page
+     * is only returned once it has been read completely, a page whose download breaks off midway is fetched again
+     * according to the retry policy.
+     */
     public List<Entry> list(Crypto.CryptoManager crypto, String last, int limit) throws Exceptions.HttpException, Exceptions.IntegrityException {
+        return list(crypto, last, limit, 0, null);
+    }
+
+    /**
+     * Like {@link #list(Crypto.CryptoManager, String, int)}, also passing the entries to {@code listener} as they
+     * arrive. If {@code maxBytes} is positive, reading stops once the entries read hold that much content, so the page
+     * kept in memory stays around that size even if the entries are much larger than expected. The page may then be
+     * shorter than {@code limit} without being the last one.
+     */
+    public List<Entry> list(Crypto.CryptoManager crypto, String last, int limit, long maxBytes, EntryListener listener) throws Exceptions.HttpException, Exceptions.IntegrityException {
+        return list(crypto, last, limit, maxBytes, listener, null);
+    }
+
+    /**
+     * @param tag the tag of the requests, to find them again to cancel them.
+     */
+    private List<Entry> list(Crypto.CryptoManager crypto, String last, int limit, final long maxBytes, final EntryListener listener, Object tag) throws Exceptions.HttpException, Exceptions.IntegrityException {
+        for (int attempt = 0; ; attempt++) {
+            final List<Entry> ret = new ArrayList<>();
+            try {
+                list(crypto, last, limit, tag, new EntryCallback() {
+                    private long bytes = 0;
+
+                    @Override
+                    public boolean onEntry(Entry entry) {
+                        ret.add(entry);
+                        if (listener != null) {
+                            listener.onEntry(entry);
+                        }
+                        bytes += entry.getContent().length;
+                        return (maxBytes <= 0) || (bytes < maxBytes);
+                    }
+                });
+                return ret;
+            } catch (ReadInterruptedException e) {
+                if ((listener != null) && !ret.isEmpty()) {
+                    listener.onDiscarded(ret);
+                }
+                if (!retryPolicy.canRetry(attempt, 0)) {
+                    throw e;
+                }
+                App.log.warning("Reading entries was interrupted, retrying");
+                HttpMetrics.retried("GET", remote);
+                retryPolicy.sleep(attempt, 0);
+            }
+        }
+    }
+
+    /**
+     * Streams the entries of the journal, decoding and verifying the HMAC chain one entry at a time. Only the entry
+     * being read is held here, whether the entries are kept is up to the callback. A bad HMAC aborts the download
+     * immediately.
+     *
+     * @throws Exceptions.ServiceUnavailableException if the connection broke off while reading the response.
+     * @throws Exceptions.HttpException if the response isn't a valid list of entries. Downloading it again won't help,
+     * so it isn't retried.
+     */
+    public void list(Crypto.CryptoManager crypto, String last, int limit, EntryCallback callback) throws Exceptions.HttpException, Exceptions.IntegrityException {
+        list(crypto, last, limit, null, callback);
+    }
+
+    private void list(Crypto.CryptoManager crypto, String last, int limit, Object tag, EntryCallback callback) throws Exceptions.HttpException, Exceptions.IntegrityException {
         Entry previousEntry = null;
         HttpUrl.Builder urlBuilder = this.remote.newBuilder();
         if (last != null) {
@@ -53,17 +181,209 @@ public class JournalEntryManager extends BaseManager {
         Request request = new Request.Builder()
                 .get()
                 .url(remote)
+                .tag(tag)
                 .build();
 
         Response response = newCall(request);
-        ResponseBody body = response.body();
-        List<Entry> ret = GsonHelper.gson.fromJson(body.charStream(), entryType);
+        @Cleanup ResponseBody body = response.body();
+        try {
+            JsonReader reader = new JsonReader(body.charStream());
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Entry entry = entryAdapter.read(reader);
+                entry.verify(crypto, previousEntry);
+                if (!callback.onEntry(entry)) {
+                    return;
+                }
+                previousEntry = entry;
+            }
+            reader.endArray();
+        } catch (MalformedJsonException | IllegalStateException | IllegalArgumentException e) {
+            // Thrown by the JsonReader and the adapter for syntax errors, unexpected tokens and bad Base64
+            App.log.log(Level.SEVERE, "Received malformed entries from server", e);
+            throw new Exceptions.HttpException(response.code(), "Malformed entries: " + e.getLocalizedMessage());
+        } catch (IOException e) {
+            App.log.log(Level.SEVERE, "Failed while reading entries from server", e);
+            throw new ReadInterruptedException("[" + e.getClass().getName() + "] " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * The connection broke while reading the response, after the request itself succeeded.
+     */
+    private static class ReadInterruptedException extends Exceptions.ServiceUnavailableException {
+        ReadInterruptedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Returns the pages of entries after {@code last}, with sizes picked by {@code pageSize} and each cut off at about
+     * its target number of bytes, fetching up to {@code prefetch} pages ahead in the background
+     * while the caller is busy with the current one.
+     */
+    public PageIterator pages(Crypto.CryptoManager crypto, String last, BatchSizeController pageSize, int prefetch) {
+        return pages(crypto, last, pageSize, prefetch, null);
+    }
+
+    /**
+     * Like {@link #pages(Crypto.CryptoManager, String, BatchSizeController, int)}, also passing the entries to
+     * {@code listener} as they arrive, from the download thread.
+     */
+    public PageIterator pages(Crypto.CryptoManager crypto, String last, BatchSizeController pageSize, int prefetch, EntryListener listener) {
+        return new PageIterator(crypto, last, pageSize, prefetch, listener);
+    }
+
+    /**
+     * Iterates over the pages of a journal. The next page is requested while the consumer is busy with the current
+     * one, so downloading overlaps with applying. At most {@code prefetch} pages are being downloaded or waiting for
+     * the consumer at any time, so together with the one the consumer has, at most {@code prefetch + 1} pages are in
+     * memory.
+     * <p>
+     * Has to be {@link #close()}d if not consumed until the end. Once closed, the listener isn't called anymore.
+     */
+    public class PageIterator implements Closeable {
+        private final Crypto.CryptoManager crypto;
+        private final BatchSizeController pageSize;
+        private final EntryListener listener;
+        private final BlockingQueue<Page> pages;
+        /**
+         * Permits for pages being downloaded or waiting in {@link #pages}.
+         */
+        private final Semaphore inFlight;
+        private final Future<?> future;
+        private volatile boolean closed = false;
+        private boolean hasNext = true;
+
+        private PageIterator(Crypto.CryptoManager crypto, final String last, BatchSizeController pageSize, int prefetch, final EntryListener listener) {
+            this.crypto = crypto;
+            this.pageSize = pageSize;
+            this.listener = (listener == null) ? null : new EntryListener() {
+                @Override
+                public void onEntry(Entry entry) {
+                    // Checked under the lock, so once close() returns no more entries are passed on
+                    synchronized (PageIterator.this) {
+                        if (!closed) {
+                            listener.onEntry(entry);
+                        }
+                    }
+                }
 
-        for (Entry entry : ret) {
-            entry.verify(crypto, previousEntry);
-            previousEntry = entry;
+                @Override
+                public void onDiscarded(List<Entry> entries) {
+                    listener.onDiscarded(entries);
+                }
+            };
+            prefetch = Math.max(prefetch, 1);
+            pages = new ArrayBlockingQueue<>(prefetch);
+            inFlight = new Semaphore(prefetch);
+            future = prefetchExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    fetch(last);
+                }
+            });
         }
 
+        private void fetch(String last) {
+            try {
+                while (!closed) {
+                    inFlight.acquire();
+                    int limit = pageSize.getSize();
+                    long start = System.currentTimeMillis();
+                    Page page;
+                    try {
+                        long maxBytes = pageSize.getTargetBytes();
+                        List<Entry> entries = list(crypto, last, limit, maxBytes, listener, this);
+                        page = new Page(entries, (entries.size() == limit) || (contentBytes(entries) >= maxBytes), null);
+                        pageSize.onSuccess(limit, page.entries, System.currentTimeMillis() - start);
+                    } catch (Exceptions.HttpException e) {
+                        pageSize.onError(e);
+                        page = new Page(null, false, e);
+                    } catch (Exceptions.IntegrityException | RuntimeException e) {
+                        page = new Page(null, false, e);
+                    }
+
+                    pages.put(page);
+                    if ((page.error != null) || !page.hasMore) {
+                        return;
+                    }
+                    last = page.entries.get(page.entries.size() - 1).getUid();
+                }
+            } catch (InterruptedException e) {
+                // Closed
+            }
+        }
+
+        /**
+         * @return false once the last page has been returned.
+         */
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        /**
+         * Blocks until the next page has been downloaded and verified.
+         */
+        public List<Entry> next() throws Exceptions.HttpException, Exceptions.IntegrityException, InterruptedException {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+
+            Page page = pages.take();
+            inFlight.release();
+            if (page.error != null) {
+                hasNext = false;
+                if (page.error instanceof Exceptions.HttpException) {
+                    throw (Exceptions.HttpException) page.error;
+                } else if (page.error instanceof Exceptions.IntegrityException) {
+                    throw (Exceptions.IntegrityException) page.error;
+                }
+                throw (RuntimeException) page.error;
+            }
+
+            hasNext = page.hasMore;
+            return page.entries;
+        }
+
+        @Override
+        public void close() {
+            hasNext = false;
+            synchronized (this) {
+                closed = true;
+            }
+            future.cancel(true);
+            // A blocking socket read doesn't notice the interrupt, so cancel the download itself
+            for (Call call : client.dispatcher().runningCalls()) {
+                if (call.request().tag() == this) {
+                    call.cancel();
+                }
+            }
+            // Make room in case the download is blocked on a full buffer
+            pages.clear();
+        }
+    }
+
+    private static class Page {
+        final List<Entry> entries;
+        /**
+         * Whether there may be entries after this page: it's as long as asked for, or was cut off.
+         */
+        final boolean hasMore;
+        final Exception error;
+
+        Page(List<Entry> entries, boolean hasMore, Exception error) {
+            this.entries = entries;
+            this.hasMore = hasMore;
+            this.error = error;
+        }
+    }
+
+    private static long contentBytes(List<Entry> entries) {
+        long ret = 0;
+        for (Entry entry : entries) {
+            ret += entry.getContent().length;
+        }
         return ret;
     }
 
@@ -85,6 +405,77 @@ public class JournalEntryManager extends BaseManager {
         newCall(request);
     }
 
+    /**
+     * The local side of {@link #push}. {@code E} is the exception its callbacks may throw.
+     */
+    public interface PushListener<E extends Exception> {
+        /**
+         * Called when other clients pushed since {@code last}, to fetch and apply their entries.
+         *
+         * @return the journal's new last uid.
+         */
+        String catchUp(String last) throws E, Exceptions.HttpException, Exceptions.IntegrityException;
+
+        /**
+         * Called after the entries from {@code offset} on were chained onto the journal's new last entry, which
+         * changed their uids.
+         */
+        void onRebased(int offset) throws E;
+
+        /**
+         * Called after the entries from {@code offset} to {@code end} (exclusive) were pushed.
+         */
+        void onPushed(int offset, int end) throws E;
+    }
+
+    /**
+     * Pushes the chain of {@code entries}, whose first one is chained to {@code last}, in batches of
+     * {@code batchSize}. When the server rejects a batch because other clients pushed in the meantime, the listener
+     * catches up with the journal and the entries that weren't pushed yet are chained onto its new last entry, up to
+     * {@code maxRebases} times before giving up with the {@link Exceptions.ConflictException}.
+     *
+     * @return the journal's new last uid.
+     */
+    public <E extends Exception> String push(Crypto.CryptoManager crypto, List<Entry> entries, String last,
+                                             BatchSizeController batchSize, int maxRebases, PushListener<E> listener)
+            throws E, Exceptions.HttpException, Exceptions.IntegrityException {
+        int rebases = 0;
+        int offset = 0;
+        while (offset < entries.size()) {
+            int size = batchSize.getSize();
+            int end = Math.min(offset + size, entries.size());
+            List<Entry> batch = entries.subList(offset, end);
+
+            long start = System.currentTimeMillis();
+            try {
+                create(batch, last);
+            } catch (Exceptions.ConflictException e) {
+                if (rebases++ >= maxRebases) {
+                    throw e;
+                }
+                App.log.info("Journal changed while pushing, rebasing (" + rebases + "/" + maxRebases + ")");
+                last = listener.catchUp(last);
+
+                Entry previous = (last != null) ? Entry.getFakeWithUid(last) : null;
+                for (Entry entry : entries.subList(offset, entries.size())) {
+                    entry.rechain(crypto, previous);
+                    previous = entry;
+                }
+                listener.onRebased(offset);
+                continue;
+            } catch (Exceptions.HttpException e) {
+                batchSize.onError(e);
+                throw e;
+            }
+            batchSize.onSuccess(size, batch, System.currentTimeMillis() - start);
+
+            last = batch.get(batch.size() - 1).getUid();
+            listener.onPushed(offset, end);
+            offset = end;
+        }
+        return last;
+    }
+
     public static class Entry extends Base {
         public Entry() {
             super();
@@ -95,6 +486,20 @@ public class JournalEntryManager extends BaseManager {
             setUid(calculateHmac(crypto, previous));
         }
 
+        /**
+         * Chains the entry to a different previous entry. Only the uid depends on it, so the content is kept as is.
+         */
+        public void rechain(Crypto.CryptoManager crypto, Entry previous) {
+            setUid(calculateHmac(crypto, previous));
+        }
+
+        /**
+         * The encrypted content, as sent to the server.
+         */
+        public byte[] getEncryptedContent() {
+            return getContent();
+        }
+
         void verify(Crypto.CryptoManager crypto, Entry previous) throws Exceptions.IntegrityException {
             String correctHash = calculateHmac(crypto, previous);
             if (!getUid().equals(correctHash)) {
@@ -102,12 +507,51 @@ public class JournalEntryManager extends BaseManager {
             }
         }
 
+        public static class GsonAdapter extends TypeAdapter<Entry> {
+            @Override
+            public void write(JsonWriter out, Entry value) throws IOException {
+                out.beginObject();
+                out.name("uid").value(value.getUid());
+                out.name("content");
+                GsonHelper.writeBytes(out, value.getContent());
+                out.endObject();
+            }
+
+            @Override
+            public Entry read(JsonReader in) throws IOException {
+                Entry ret = new Entry();
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "uid":
+                            ret.setUid(GsonHelper.readString(in));
+                            break;
+                        case "content":
+                            ret.setContent(GsonHelper.readBytes(in));
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                }
+                in.endObject();
+
+                return ret;
+            }
+        }
+
         public static Entry getFakeWithUid(String uid) {
             Entry ret = new Entry();
             ret.setUid(uid);
             return ret;
         }
 
+        public static Entry fromEncrypted(String uid, byte[] content) {
+            Entry ret = new Entry();
+            ret.setUid(uid);
+            ret.setContent(content);
+            return ret;
+        }
+
         private String calculateHmac(Crypto.CryptoManager crypto, Entry previous) {
             String uuid = null;
             if (previous != null) {
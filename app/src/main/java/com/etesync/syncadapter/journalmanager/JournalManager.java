@@ -2,15 +2,21 @@ package com.etesync.syncadapter.journalmanager;
 
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.GsonHelper;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import org.spongycastle.util.Arrays;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.lang.reflect.Type;
 import java.util.List;
 import java.util.UUID;
 
+import lombok.Cleanup;
 import lombok.Getter;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
@@ -41,20 +47,52 @@ public class JournalManager extends BaseManager {
     }
 
     public List<Journal> list() throws Exceptions.HttpException {
-        Request request = new Request.Builder()
+        return list(null).getJournals();
+    }
+
+    /**
+     * Lists the journals, unless they haven't changed since the listing identified by {@code etag}.
+     */
+    public ListResult list(String etag) throws Exceptions.HttpException {
+        Request.Builder builder = new Request.Builder()
                 .get()
-                .url(remote)
-                .build();
+                .url(remote);
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+
+        Response response = newCall(builder.build());
+        @Cleanup ResponseBody body = response.body();
+        if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new ListResult(null, etag);
+        }
 
-        Response response = newCall(request);
-        ResponseBody body = response.body();
         List<Journal> ret = GsonHelper.gson.fromJson(body.charStream(), journalType);
 
         for (Journal journal : ret) {
             journal.processFromJson();
         }
 
-        return ret;
+        return new ListResult(ret, response.header("ETag"));
+    }
+
+    public static class ListResult {
+        /**
+         * The journals, or null if they haven't changed.
+         */
+        @Getter
+        private final List<Journal> journals;
+        @Getter
+        private final String etag;
+
+        ListResult(List<Journal> journals, String etag) {
+            this.journals = journals;
+            this.etag = etag;
+        }
+
+        public boolean isNotModified() {
+            return journals == null;
+        }
     }
 
     public void delete(Journal journal) throws Exceptions.HttpException {
@@ -198,6 +236,61 @@ public class JournalManager extends BaseManager {
             setContent(rawContent);
             return ret;
         }
+
+        public static class GsonAdapter extends TypeAdapter<Journal> {
+            @Override
+            public void write(JsonWriter out, Journal value) throws IOException {
+                out.beginObject();
+                out.name("owner").value(value.owner);
+                out.name("key");
+                GsonHelper.writeBytes(out, value.key);
+                out.name("version").value(value.version);
+                out.name("readOnly").value(value.readOnly);
+                out.name("uid").value(value.getUid());
+                out.name("content");
+                GsonHelper.writeBytes(out, value.getContent());
+                out.endObject();
+            }
+
+            @Override
+            public Journal read(JsonReader in) throws IOException {
+                Journal ret = new Journal();
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        continue;
+                    }
+
+                    switch (name) {
+                        case "owner":
+                            ret.owner = in.nextString();
+                            break;
+                        case "key":
+                            ret.key = GsonHelper.readBytes(in);
+                            break;
+                        case "version":
+                            ret.version = in.nextInt();
+                            break;
+                        case "readOnly":
+                            ret.readOnly = in.nextBoolean();
+                            break;
+                        case "uid":
+                            ret.setUid(in.nextString());
+                            break;
+                        case "content":
+                            ret.setContent(GsonHelper.readBytes(in));
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                }
+                in.endObject();
+
+                return ret;
+            }
+        }
     }
 
     public static class Member {
@@ -218,5 +311,37 @@ public class JournalManager extends BaseManager {
         String toJson() {
             return GsonHelper.gson.toJson(this, getClass());
         }
+
+        public static class GsonAdapter extends TypeAdapter<Member> {
+            @Override
+            public void write(JsonWriter out, Member value) throws IOException {
+                out.beginObject();
+                out.name("user").value(value.user);
+                out.name("key");
+                GsonHelper.writeBytes(out, value.key);
+                out.endObject();
+            }
+
+            @Override
+            public Member read(JsonReader in) throws IOException {
+                Member ret = new Member();
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "user":
+                            ret.user = GsonHelper.readString(in);
+                            break;
+                        case "key":
+                            ret.key = GsonHelper.readBytes(in);
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                }
+                in.endObject();
+
+                return ret;
+            }
+        }
     }
 }
@@ -0,0 +1,82 @@
+package com.etesync.syncadapter.journalmanager;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+
+/**
+ * When and how long to wait before retrying a failed idempotent request: exponential backoff with full jitter, or
+ * the server's Retry-After if that's longer. Requests the server asks to postpone for longer than
+ * {@link #maxRetryAfterMillis} aren't retried, so the sync fails and is rescheduled instead of blocking.
+ */
+public class RetryPolicy {
+    private static final RetryPolicy defaultPolicy = new RetryPolicy(3, 1000, 15000, TimeUnit.MINUTES.toMillis(1));
+
+    private static final Random random = new Random();
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRetryAfterMillis;
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, long maxRetryAfterMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+    }
+
+    public static RetryPolicy getDefault() {
+        return defaultPolicy;
+    }
+
+    /**
+     * @param attempt the number of the failed attempt, starting from 0.
+     * @param retryAfterMillis the delay the server asked for, or 0.
+     */
+    boolean canRetry(int attempt, long retryAfterMillis) {
+        return (attempt < maxRetries) && (retryAfterMillis <= maxRetryAfterMillis);
+    }
+
+    long getDelay(int attempt, long retryAfterMillis) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 20));
+        long jittered;
+        synchronized (random) {
+            jittered = (long) (random.nextDouble() * ceiling);
+        }
+        return Math.max(jittered, retryAfterMillis);
+    }
+
+    /**
+     * Waits before the next attempt.
+     *
+     * @throws Exceptions.ServiceUnavailableException if interrupted while waiting, the interrupt flag is kept set.
+     */
+    void sleep(int attempt, long retryAfterMillis) throws Exceptions.ServiceUnavailableException {
+        try {
+            Thread.sleep(getDelay(attempt, retryAfterMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Exceptions.ServiceUnavailableException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * @return the Retry-After of the response in milliseconds, or 0 if missing or not a number of seconds.
+     */
+    static long getRetryAfterMillis(Response response) {
+        return TimeUnit.SECONDS.toMillis(getRetryAfter(response));
+    }
+
+    /**
+     * @return the Retry-After of the response in seconds, or 0 if missing or not a number of seconds.
+     */
+    static long getRetryAfter(Response response) {
+        try {
+            return Math.max(Long.parseLong(response.header("Retry-After", "0").trim()), 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.etesync.syncadapter.journalmanager;
 
 import com.etesync.syncadapter.GsonHelper;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import org.apache.commons.codec.Charsets;
 import org.spongycastle.util.Arrays;
@@ -145,5 +149,48 @@ public class UserInfoManager extends BaseManager {
         String toJson() {
             return GsonHelper.gson.toJson(this, getClass());
         }
+
+        public static class GsonAdapter extends TypeAdapter<UserInfo> {
+            @Override
+            public void write(JsonWriter out, UserInfo value) throws IOException {
+                out.beginObject();
+                out.name("version").value(value.version);
+                out.name("pubkey");
+                GsonHelper.writeBytes(out, value.pubkey);
+                out.name("content");
+                GsonHelper.writeBytes(out, value.content);
+                out.endObject();
+            }
+
+            @Override
+            public UserInfo read(JsonReader in) throws IOException {
+                UserInfo ret = new UserInfo();
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        continue;
+                    }
+
+                    switch (name) {
+                        case "version":
+                            ret.version = (byte) in.nextInt();
+                            break;
+                        case "pubkey":
+                            ret.pubkey = GsonHelper.readBytes(in);
+                            break;
+                        case "content":
+                            ret.content = GsonHelper.readBytes(in);
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                }
+                in.endObject();
+
+                return ret;
+            }
+        }
     }
 }
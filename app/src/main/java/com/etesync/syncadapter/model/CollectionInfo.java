@@ -13,9 +13,15 @@ import android.content.ContentValues;
 import com.etesync.syncadapter.journalmanager.Constants;
 import com.etesync.syncadapter.journalmanager.JournalManager;
 import com.etesync.syncadapter.model.ServiceDB.Collections;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.Expose;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 import io.requery.Persistable;
@@ -24,6 +30,11 @@ import lombok.ToString;
 
 @ToString(exclude = {"id"})
 public class CollectionInfo implements Serializable {
+    private static final Gson gson = new GsonBuilder()
+            .excludeFieldsWithoutExposeAnnotation()
+            .registerTypeAdapter(CollectionInfo.class, new GsonAdapter().nullSafe())
+            .create();
+
     @Deprecated
     public long id;
 
@@ -98,11 +109,11 @@ public class CollectionInfo implements Serializable {
     }
 
     public static CollectionInfo fromJson(String json) {
-        return new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create().fromJson(json, CollectionInfo.class);
+        return gson.fromJson(json, CollectionInfo.class);
     }
 
     public String toJson() {
-        return new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create().toJson(this, CollectionInfo.class);
+        return gson.toJson(this, CollectionInfo.class);
     }
 
     private static Boolean getAsBooleanOrNull(ContentValues values, String field) {
@@ -110,4 +121,74 @@ public class CollectionInfo implements Serializable {
         return (i == null) ? null : (i != 0);
     }
 
+    /**
+     * Only (de)serializes the {@link Expose}d fields, same as the reflective excluding Gson did.
+     */
+    private static class GsonAdapter extends TypeAdapter<CollectionInfo> {
+        @Override
+        public void write(JsonWriter out, CollectionInfo value) throws IOException {
+            out.beginObject();
+            out.name("version").value(value.version);
+            out.name("type").value((value.type != null) ? value.type.name() : null);
+            out.name("displayName").value(value.displayName);
+            out.name("description").value(value.description);
+            out.name("color").value(value.color);
+            out.name("timeZone").value(value.timeZone);
+            out.name("selected").value(value.selected);
+            out.endObject();
+        }
+
+        @Override
+        public CollectionInfo read(JsonReader in) throws IOException {
+            CollectionInfo ret = new CollectionInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "version":
+                        ret.version = in.nextInt();
+                        break;
+                    case "type":
+                        ret.type = typeOrNull(in.nextString());
+                        break;
+                    case "displayName":
+                        ret.displayName = in.nextString();
+                        break;
+                    case "description":
+                        ret.description = in.nextString();
+                        break;
+                    case "color":
+                        ret.color = in.nextInt();
+                        break;
+                    case "timeZone":
+                        ret.timeZone = in.nextString();
+                        break;
+                    case "selected":
+                        ret.selected = in.nextBoolean();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return ret;
+        }
+
+        /**
+         * Unknown types (e.g. added by newer clients) are read as null, same as the reflective Gson did.
+         */
+        private static Type typeOrNull(String name) {
+            try {
+                return Type.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
 }
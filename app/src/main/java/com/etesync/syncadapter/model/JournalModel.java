@@ -126,6 +126,80 @@ public class JournalModel {
         Journal journal;
     }
 
+    /**
+     * A local change that has been turned into a journal entry but not pushed yet. Kept across syncs so a failed push
+     * doesn't have to encrypt everything again, and so every pushed entry can be matched with its local resource.
+     */
+    @Entity
+    @Table(name = "Outbox")
+    public static abstract class Outbox {
+        @Key
+        @Generated
+        int id;
+
+        /**
+         * The entry's uid, which depends on the uid it was chained to.
+         */
+        @Column(length = 64, nullable = false)
+        String uid;
+
+        /**
+         * The encrypted {@link SyncEntry}.
+         */
+        @Column(nullable = false)
+        byte[] content;
+
+        /**
+         * SHA-256 of the plaintext {@link SyncEntry}, to tell whether the local resource changed since.
+         */
+        @Column(length = 64, nullable = false)
+        String contentHash;
+
+        SyncEntry.Actions action;
+
+        /**
+         * Uid of the {@link com.etesync.syncadapter.resource.LocalResource} the change is of. Not its id, as e.g.
+         * contacts and groups are in the same journal but have separate id spaces.
+         */
+        String localUid;
+
+        @ForeignKey(update = ReferentialAction.CASCADE)
+        @ManyToOne
+        Journal journal;
+    }
+
+    /**
+     * Which local resource a journal's uid was applied to, so the sync doesn't have to search the content provider
+     * for it. Only a hint: it's checked against the provider when used.
+     */
+    @Entity
+    @Table(name = "LocalUid", uniqueIndexes = "local_uid_unique_together")
+    public static abstract class LocalUid {
+        @Key
+        @Generated
+        int id;
+
+        @Index("local_uid_unique_together")
+        @Column(length = 64, nullable = false)
+        String uid;
+
+        /**
+         * Id of the {@link com.etesync.syncadapter.resource.LocalResource}.
+         */
+        @Column(nullable = false)
+        Long localId;
+
+        /**
+         * SHA-256 of the content last applied to the resource by the sync, null if unknown.
+         */
+        @Column(length = 64)
+        String contentHash;
+
+        @Index("local_uid_unique_together")
+        @ForeignKey(update = ReferentialAction.CASCADE)
+        @ManyToOne
+        Journal journal;
+    }
 
     @Entity
     @Table(name = "Service", uniqueIndexes = "service_unique_together")
@@ -2,8 +2,14 @@ package com.etesync.syncadapter.model;
 
 import com.etesync.syncadapter.GsonHelper;
 import com.etesync.syncadapter.journalmanager.Crypto;
+import com.etesync.syncadapter.journalmanager.Exceptions;
 import com.etesync.syncadapter.journalmanager.JournalEntryManager;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.io.Serializable;
 
 import lombok.Getter;
@@ -44,7 +50,7 @@ public class SyncEntry implements Serializable {
         return this.action.equals(action);
     }
 
-    public static SyncEntry fromJournalEntry(Crypto.CryptoManager crypto, JournalEntryManager.Entry entry) {
+    public static SyncEntry fromJournalEntry(Crypto.CryptoManager crypto, JournalEntryManager.Entry entry) throws Exceptions.IntegrityException {
         return fromJson(entry.getContent(crypto));
     }
 
@@ -55,4 +61,50 @@ public class SyncEntry implements Serializable {
     public String toJson() {
         return GsonHelper.gson.toJson(this, this.getClass());
     }
+
+    public static class GsonAdapter extends TypeAdapter<SyncEntry> {
+        @Override
+        public void write(JsonWriter out, SyncEntry value) throws IOException {
+            out.beginObject();
+            out.name("content").value(value.content);
+            out.name("action").value((value.action != null) ? value.action.name() : null);
+            out.endObject();
+        }
+
+        @Override
+        public SyncEntry read(JsonReader in) throws IOException {
+            SyncEntry ret = new SyncEntry();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "content":
+                        ret.content = GsonHelper.readString(in);
+                        break;
+                    case "action":
+                        String action = GsonHelper.readString(in);
+                        ret.action = actionOrNull(action);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return ret;
+        }
+
+        /**
+         * Unknown actions are read as null, same as the reflective Gson did.
+         */
+        private static Actions actionOrNull(String name) {
+            if (name == null) {
+                return null;
+            }
+            try {
+                return Actions.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
 }
@@ -29,18 +29,25 @@ import android.provider.ContactsContract.RawContacts;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.os.OperationCanceledException;
+import android.text.TextUtils;
 
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.model.CollectionInfo;
 import com.etesync.syncadapter.model.JournalEntity;
 import com.etesync.syncadapter.utils.AndroidCompat;
 
+import org.apache.commons.lang3.StringUtils;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
@@ -57,7 +64,10 @@ public class LocalAddressBook extends AndroidAddressBook implements LocalCollect
     protected static final String
             USER_DATA_MAIN_ACCOUNT_TYPE = "real_account_type",
             USER_DATA_MAIN_ACCOUNT_NAME = "real_account_name",
-            USER_DATA_URL = "url";
+            USER_DATA_URL = "url",
+            USER_DATA_CTAG = "ctag";
+
+    private static final int MAX_SELECTION_ARGS = 500;
 
     protected final Context context;
     private final Bundle syncState = new Bundle();
@@ -159,6 +169,39 @@ public class LocalAddressBook extends AndroidAddressBook implements LocalCollect
         return contacts[0];
     }
 
+    /**
+     * Like {@link #findContactByUID(String)}, for many uids at once. Contacts with a known id are looked up by id all
+     * together, the others one by one.
+     *
+     * @param knownIds ids of contacts by uid, which may be outdated
+     * @return the contacts by uid, without the ones that couldn't be found
+     */
+    public Map<String, LocalContact> findContactsByUIDs(Collection<String> uids, Map<String, Long> knownIds) throws ContactsStorageException {
+        Map<String, Long> ids = new HashMap<>();
+        for (String uid : uids) {
+            Long id = knownIds.get(uid);
+            if (id != null) {
+                ids.put(uid, id);
+            }
+        }
+
+        Map<String, LocalContact> ret = new HashMap<>(uids.size());
+        for (Map.Entry<String, LocalResource> entry : getByIds(ids).entrySet()) {
+            ret.put(entry.getKey(), (LocalContact) entry.getValue());
+        }
+
+        for (String uid : uids) {
+            if (!ret.containsKey(uid)) {
+                try {
+                    ret.put(uid, findContactByUID(uid));
+                } catch (FileNotFoundException e) {
+                    // Left out
+                }
+            }
+        }
+        return ret;
+    }
+
     /**
      * Returns an array of local contacts/groups which have been deleted locally. (DELETED != 0).
      */
@@ -242,6 +285,74 @@ public class LocalAddressBook extends AndroidAddressBook implements LocalCollect
         return null;
     }
 
+    @Override
+    public Map<String, LocalResource> getByUids(Collection<String> uids) throws ContactsStorageException {
+        Map<String, LocalResource> ret = new HashMap<>(uids.size());
+        List<String> all = new ArrayList<>(uids);
+        for (int i = 0; i < all.size(); i += MAX_SELECTION_ARGS) {
+            List<String> chunk = all.subList(i, Math.min(i + MAX_SELECTION_ARGS, all.size()));
+            String where = AndroidContact.COLUMN_FILENAME + " IN (" + StringUtils.repeat("?", ",", chunk.size()) + ")";
+            for (LocalContact contact : (LocalContact[]) queryContacts(where, chunk.toArray(new String[chunk.size()]))) {
+                if (!ret.containsKey(contact.getUuid())) {
+                    ret.put(contact.getUuid(), contact);
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, LocalResource> getByIds(Map<String, Long> ids) throws ContactsStorageException {
+        // Matched by uid, as the ids may also be of groups, which can have the same ids as contacts
+        Map<String, LocalResource> ret = new HashMap<>(ids.size());
+        List<Long> all = new ArrayList<>(new HashSet<>(ids.values()));
+        for (int i = 0; i < all.size(); i += MAX_SELECTION_ARGS) {
+            List<Long> chunk = all.subList(i, Math.min(i + MAX_SELECTION_ARGS, all.size()));
+            for (LocalContact resource : (LocalContact[]) queryContacts(RawContacts._ID + " IN (" + TextUtils.join(",", chunk) + ")", null)) {
+                Long id = ids.get(resource.getUuid());
+                if ((id != null) && id.equals(resource.getId())) {
+                    ret.put(resource.getUuid(), resource);
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public void deleteAll(List<LocalResource> resources) throws ContactsStorageException {
+        List<Long> contactIds = new ArrayList<>(resources.size());
+        for (LocalResource resource : resources) {
+            if (resource instanceof LocalContact) {
+                contactIds.add(resource.getId());
+            } else {
+                try {
+                    resource.delete();
+                } catch (CalendarStorageException e) {
+                    // Not thrown by address book resources
+                }
+            }
+        }
+
+        try {
+            for (int i = 0; i < contactIds.size(); i += MAX_SELECTION_ARGS) {
+                List<Long> chunk = contactIds.subList(i, Math.min(i + MAX_SELECTION_ARGS, contactIds.size()));
+                provider.delete(syncAdapterURI(RawContacts.CONTENT_URI), RawContacts._ID + " IN (" + TextUtils.join(",", chunk) + ")", null);
+            }
+        } catch (RemoteException e) {
+            throw new ContactsStorageException("Couldn't delete contacts", e);
+        }
+    }
+
+    @Override
+    public String getCTag() {
+        return AccountManager.get(context).getUserData(account, USER_DATA_CTAG);
+    }
+
+    @Override
+    public void setCTag(String cTag) {
+        AccountManager.get(context).setUserData(account, USER_DATA_CTAG, cTag);
+    }
+
     @Override
     public long count() throws ContactsStorageException {
         try {
@@ -32,8 +32,12 @@ import net.fortuna.ical4j.model.component.VTimeZone;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import at.bitfire.ical4android.AndroidCalendar;
 import at.bitfire.ical4android.AndroidCalendarFactory;
@@ -49,6 +53,8 @@ public class LocalCalendar extends AndroidCalendar implements LocalCollection {
 
     public static final String COLUMN_CTAG = Calendars.CAL_SYNC1;
 
+    private static final int MAX_SELECTION_ARGS = 500;
+
     static String[] BASE_INFO_COLUMNS = new String[] {
             Events._ID,
             Events._SYNC_ID,
@@ -146,6 +152,58 @@ public class LocalCalendar extends AndroidCalendar implements LocalCollection {
         return null;
     }
 
+    @Override
+    public Map<String, LocalResource> getByUids(Collection<String> uids) throws CalendarStorageException {
+        Map<String, LocalResource> ret = new HashMap<>(uids.size());
+        List<String> all = new ArrayList<>(uids);
+        for (int i = 0; i < all.size(); i += MAX_SELECTION_ARGS) {
+            List<String> chunk = all.subList(i, Math.min(i + MAX_SELECTION_ARGS, all.size()));
+            String where = Events._SYNC_ID + " IN (" + StringUtils.repeat("?", ",", chunk.size()) + ")";
+            for (LocalEvent event : (LocalEvent[]) queryEvents(where, chunk.toArray(new String[chunk.size()]))) {
+                if (!ret.containsKey(event.getUuid())) {
+                    ret.put(event.getUuid(), event);
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, LocalResource> getByIds(Map<String, Long> ids) throws CalendarStorageException {
+        Map<Long, String> uids = new HashMap<>(ids.size());
+        for (Map.Entry<String, Long> entry : ids.entrySet()) {
+            uids.put(entry.getValue(), entry.getKey());
+        }
+
+        Map<String, LocalResource> ret = new HashMap<>(ids.size());
+        List<Long> all = new ArrayList<>(uids.keySet());
+        for (int i = 0; i < all.size(); i += MAX_SELECTION_ARGS) {
+            List<Long> chunk = all.subList(i, Math.min(i + MAX_SELECTION_ARGS, all.size()));
+            for (LocalEvent resource : (LocalEvent[]) queryEvents(Events._ID + " IN (" + TextUtils.join(",", chunk) + ")", null)) {
+                String uid = uids.get(resource.getId());
+                if ((uid != null) && uid.equals(resource.getUuid())) {
+                    ret.put(uid, resource);
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public void deleteAll(List<LocalResource> resources) throws CalendarStorageException {
+        try {
+            for (int i = 0; i < resources.size(); i += MAX_SELECTION_ARGS) {
+                List<Long> ids = new ArrayList<>();
+                for (LocalResource resource : resources.subList(i, Math.min(i + MAX_SELECTION_ARGS, resources.size()))) {
+                    ids.add(resource.getId());
+                }
+                provider.delete(syncAdapterURI(Events.CONTENT_URI), Events._ID + " IN (" + TextUtils.join(",", ids) + ")", null);
+            }
+        } catch (RemoteException e) {
+            throw new CalendarStorageException("Couldn't delete events", e);
+        }
+    }
+
     @Override
     public LocalResource[] getDirty() throws CalendarStorageException, FileNotFoundException {
         List<LocalResource> dirty = new LinkedList<>();
@@ -248,6 +306,47 @@ public class LocalCalendar extends AndroidCalendar implements LocalCollection {
         }
     }
 
+    /**
+     * The number of events with local changes, including deletions, that have yet to be pushed.
+     */
+    public long countPending() throws CalendarStorageException {
+        String where = Events.CALENDAR_ID + "=? AND (" + Events.DIRTY + "!=0 OR " + Events.DELETED + "!=0) AND " + Events.ORIGINAL_ID + " IS NULL";
+        String whereArgs[] = {String.valueOf(id)};
+
+        try {
+            @Cleanup Cursor cursor = provider.query(
+                    syncAdapterURI(Events.CONTENT_URI),
+                    new String[] { Events._ID },
+                    where, whereArgs, null);
+            return cursor.getCount();
+        } catch (RemoteException e) {
+            throw new CalendarStorageException("Couldn't query calendar events", e);
+        }
+    }
+
+    @Override
+    public String getCTag() throws CalendarStorageException {
+        try {
+            @Cleanup Cursor cursor = provider.query(
+                    syncAdapterURI(ContentUris.withAppendedId(Calendars.CONTENT_URI, id)),
+                    new String[] { COLUMN_CTAG },
+                    null, null, null);
+            if (cursor != null && cursor.moveToNext()) {
+                return cursor.getString(0);
+            }
+            return null;
+        } catch (RemoteException e) {
+            throw new CalendarStorageException("Couldn't read local (last known) CTag", e);
+        }
+    }
+
+    @Override
+    public void setCTag(String cTag) throws CalendarStorageException {
+        ContentValues values = new ContentValues(1);
+        values.put(COLUMN_CTAG, cTag);
+        update(values);
+    }
+
     public static class Factory implements AndroidCalendarFactory {
         public static final Factory INSTANCE = new Factory();
 
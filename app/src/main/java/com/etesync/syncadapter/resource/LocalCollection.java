@@ -9,6 +9,9 @@
 package com.etesync.syncadapter.resource;
 
 import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import at.bitfire.ical4android.CalendarStorageException;
 import at.bitfire.vcard4android.ContactsStorageException;
@@ -22,5 +25,21 @@ public interface LocalCollection {
 
     LocalResource getByUid(String uid) throws CalendarStorageException, ContactsStorageException;
 
+    /** Like {@link #getByUid(String)}, but for many uids at once. Uids without a resource are left out. */
+    Map<String, LocalResource> getByUids(Collection<String> uids) throws CalendarStorageException, ContactsStorageException;
+
+    /**
+     * Like {@link #getByUids(Collection)}, for resources whose ids are already known. Ids without a resource, or whose
+     * resource has a different uid by now, are left out.
+     */
+    Map<String, LocalResource> getByIds(Map<String, Long> ids) throws CalendarStorageException, ContactsStorageException;
+
+    /** Deletes the given resources of this collection, in as few provider calls as possible. */
+    void deleteAll(List<LocalResource> resources) throws CalendarStorageException, ContactsStorageException;
+
     long count() throws CalendarStorageException, ContactsStorageException;
+
+    /** The uid of the last journal entry applied to this collection, or null if unknown (e.g. it was just created). */
+    String getCTag() throws CalendarStorageException, ContactsStorageException;
+    void setCTag(String cTag) throws CalendarStorageException, ContactsStorageException;
 }
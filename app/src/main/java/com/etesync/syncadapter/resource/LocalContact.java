@@ -9,6 +9,7 @@
 package com.etesync.syncadapter.resource;
 
 import android.content.ContentProviderOperation;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
@@ -41,6 +42,7 @@ import at.bitfire.vcard4android.BatchOperation;
 import at.bitfire.vcard4android.CachedGroupMembership;
 import at.bitfire.vcard4android.Contact;
 import at.bitfire.vcard4android.ContactsStorageException;
+import at.bitfire.vcard4android.OffsetBatchOperation;
 import ezvcard.Ezvcard;
 import ezvcard.VCardVersion;
 import lombok.Cleanup;
@@ -173,6 +175,65 @@ public class LocalContact extends AndroidContact implements LocalResource {
 
     }
 
+    /**
+     * Like {@link #create()}, but only enqueues the operations to the given batch, which may hold the ones of other
+     * resources too. Once the batch is committed, {@link #onCommitted(BatchOperation, int)} has to be called.
+     *
+     * @return the index of the raw contact's operation in the batch.
+     */
+    public int enqueueCreate(BatchOperation batch) throws ContactsStorageException {
+        final int idx = batch.nextBackrefIdx();
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(addressBook.syncAdapterURI(ContactsContract.RawContacts.CONTENT_URI));
+        buildContact(builder, false);
+        // Let the provider yield between contacts, never within one
+        batch.enqueue(new BatchOperation.Operation(builder.withYieldAllowed(true)));
+
+        // The data rows refer back to the raw contact as if it was the first operation of the batch
+        insertDataRows(new OffsetBatchOperation(addressBook.provider, batch));
+        return idx;
+    }
+
+    /**
+     * Like {@link #update(Contact)}, but only enqueues the operations to the given batch, see
+     * {@link #enqueueCreate(BatchOperation)}.
+     *
+     * @return the index of the raw contact's operation in the batch.
+     */
+    public int enqueueUpdate(Contact contact, BatchOperation batch) throws ContactsStorageException {
+        assertID();
+        this.contact = contact;
+
+        final int idx = batch.nextBackrefIdx();
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(rawContactSyncURI());
+        buildContact(builder, true);
+        batch.enqueue(new BatchOperation.Operation(builder.withYieldAllowed(true)));
+
+        // Replace the data rows, except for the group memberships
+        batch.enqueue(new BatchOperation.Operation(
+                ContentProviderOperation.newDelete(dataSyncURI())
+                        .withSelection(
+                                Data.RAW_CONTACT_ID + "=? AND " + Data.MIMETYPE + " NOT IN (?,?)",
+                                new String[] { String.valueOf(id), GroupMembership.CONTENT_ITEM_TYPE, CachedGroupMembership.CONTENT_ITEM_TYPE }
+                        )
+        ));
+        insertDataRows(batch);
+        return idx;
+    }
+
+    /**
+     * Completes {@link #enqueueCreate(BatchOperation)} or {@link #enqueueUpdate(Contact, BatchOperation)} once the
+     * batch is committed.
+     *
+     * @param idx the index returned by them.
+     */
+    public void onCommitted(BatchOperation batch, int idx) {
+        if (id == null)
+            id = ContentUris.parseId(batch.getResult(idx).uri);
+
+        // The photo is written to the raw contact once it exists, like create() and update() do
+        insertPhoto(contact.photo);
+    }
+
     public int updateAsDirty(Contact contact) throws ContactsStorageException {
         saveAsDirty = true;
         return this.update(contact);
@@ -10,6 +10,7 @@ package com.etesync.syncadapter.resource;
 
 import android.annotation.TargetApi;
 import android.content.ContentProviderOperation;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
@@ -33,6 +34,7 @@ import java.util.logging.Level;
 import at.bitfire.ical4android.AndroidCalendar;
 import at.bitfire.ical4android.AndroidEvent;
 import at.bitfire.ical4android.AndroidEventFactory;
+import at.bitfire.ical4android.BatchOperation;
 import at.bitfire.ical4android.CalendarStorageException;
 import at.bitfire.ical4android.Event;
 import at.bitfire.vcard4android.ContactsStorageException;
@@ -50,6 +52,7 @@ public class LocalEvent extends AndroidEvent implements LocalResource {
             COLUMN_SEQUENCE = CalendarContract.Events.SYNC_DATA3;
 
     private boolean saveAsDirty = false; // When true, the resource will be saved as dirty
+    private boolean yieldBeforeInsert = false; // When true, the provider may yield before the event is inserted
 
     @Getter
     protected String fileName;
@@ -125,6 +128,9 @@ public class LocalEvent extends AndroidEvent implements LocalResource {
                 .withValue(CalendarContract.Events.DIRTY, saveAsDirty ? 1 : 0)
                 .withValue(CalendarContract.Events.DELETED, 0);
 
+        if (yieldBeforeInsert && !buildException)
+            builder.withYieldAllowed(true);
+
         if (buildException)
             builder.withValue(Events.ORIGINAL_SYNC_ID, fileName);
         else
@@ -142,6 +148,53 @@ public class LocalEvent extends AndroidEvent implements LocalResource {
         return this.update(event);
     }
 
+    /**
+     * Like {@link #add()}, but only enqueues the operations to the given batch, which may hold the ones of other
+     * resources too. Once the batch is committed, {@link #onCommitted(BatchOperation, int)} has to be called.
+     *
+     * @return the index of the event's insert in the batch.
+     */
+    public int enqueueAdd(BatchOperation batch) {
+        // Let the provider yield between events, never within one
+        yieldBeforeInsert = true;
+        try {
+            return add(batch);
+        } finally {
+            yieldBeforeInsert = false;
+        }
+    }
+
+    /**
+     * Like {@link #update(Event)}, but only enqueues the operations to the given batch, see
+     * {@link #enqueueAdd(BatchOperation)}.
+     *
+     * @return the index of the event's insert in the batch.
+     */
+    public int enqueueUpdate(Event event, BatchOperation batch) {
+        this.event = event;
+
+        // Replaced by a new event, like update() does, but with a yield point before it
+        batch.enqueue(new BatchOperation.Operation(
+                ContentProviderOperation.newDelete(eventSyncURI())
+                        .withYieldAllowed(true)
+        ));
+        batch.enqueue(new BatchOperation.Operation(
+                ContentProviderOperation.newDelete(calendar.syncAdapterURI(Events.CONTENT_URI))
+                        .withSelection(Events.ORIGINAL_ID + "=?", new String[] { String.valueOf(id) })
+        ));
+        return add(batch);
+    }
+
+    /**
+     * Completes {@link #enqueueAdd(BatchOperation)} or {@link #enqueueUpdate(Event, BatchOperation)} once the batch
+     * is committed.
+     *
+     * @param idx the index returned by them.
+     */
+    public void onCommitted(BatchOperation batch, int idx) {
+        id = ContentUris.parseId(batch.getResult(idx).uri);
+    }
+
     /* custom queries */
 
     public void prepareForUpload() throws CalendarStorageException {
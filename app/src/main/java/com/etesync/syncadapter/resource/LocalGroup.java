@@ -27,11 +27,13 @@ import com.etesync.syncadapter.App;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
@@ -166,6 +168,19 @@ public class LocalGroup extends AndroidGroup implements LocalResource {
      * @throws ContactsStorageException on contact provider errors
      */
     public static void applyPendingMemberships(LocalAddressBook addressBook) throws ContactsStorageException {
+        applyPendingMemberships(addressBook, Collections.<String, Long>emptyMap());
+    }
+
+    /**
+     * Like {@link #applyPendingMemberships(LocalAddressBook)}, looking up the members of all groups at once.
+     * @param addressBook    address book to take groups from
+     * @param knownIds       raw contact ids by uid, which may be outdated
+     * @throws ContactsStorageException on contact provider errors
+     */
+    public static void applyPendingMemberships(LocalAddressBook addressBook, Map<String, Long> knownIds) throws ContactsStorageException {
+        // extract lists of member UIDs
+        Map<Long, List<String>> pendingMembers = new LinkedHashMap<>();
+        Set<String> allMembers = new HashSet<>();
         try {
             @Cleanup Cursor cursor = addressBook.provider.query(
                     addressBook.syncAdapterURI(Groups.CONTENT_URI),
@@ -174,21 +189,7 @@ public class LocalGroup extends AndroidGroup implements LocalResource {
                     null
             );
 
-            BatchOperation batch = new BatchOperation(addressBook.provider);
             while (cursor != null && cursor.moveToNext()) {
-                long id = cursor.getLong(0);
-                App.log.fine("Assigning members to group " + id);
-
-                // required for workaround for Android 7 which sets DIRTY flag when only meta-data is changed
-                Set<Long> changeContactIDs = new HashSet<>();
-
-                // delete all memberships and cached memberships for this group
-                for (LocalContact contact : addressBook.getByGroupMembership(id)) {
-                    contact.removeGroupMemberships(batch);
-                    changeContactIDs.add(contact.getId());
-                }
-
-                // extract list of member UIDs
                 List<String> members = new LinkedList<>();
                 byte[] raw = cursor.getBlob(1);
                 @Cleanup("recycle") Parcel parcel = Parcel.obtain();
@@ -196,37 +197,57 @@ public class LocalGroup extends AndroidGroup implements LocalResource {
                 parcel.setDataPosition(0);
                 parcel.readStringList(members);
 
-                // insert memberships
-                for (String uid : members) {
-                    App.log.fine("Assigning member: " + uid);
-                    try {
-                        LocalContact member = addressBook.findContactByUID(uid);
-                        member.addToGroup(batch, id);
-                        changeContactIDs.add(member.getId());
-                    } catch(FileNotFoundException e) {
-                        App.log.log(Level.WARNING, "Group member not found: " + uid, e);
-                    }
-                }
-
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
-                    // workaround for Android 7 which sets DIRTY flag when only meta-data is changed
-                    for (Long contactID : changeContactIDs) {
-                        LocalContact contact = new LocalContact(addressBook, contactID, null, null);
-                        contact.updateHashCode(batch);
-                    }
-
-                // remove pending memberships
-                batch.enqueue(new BatchOperation.Operation(
-                        ContentProviderOperation.newUpdate(addressBook.syncAdapterURI(ContentUris.withAppendedId(Groups.CONTENT_URI, id)))
-                                .withValue(COLUMN_PENDING_MEMBERS, null)
-                                .withYieldAllowed(true)
-                ));
-
-                batch.commit();
+                pendingMembers.put(cursor.getLong(0), members);
+                allMembers.addAll(members);
             }
         } catch(RemoteException e) {
             throw new ContactsStorageException("Couldn't get pending memberships", e);
         }
+
+        Map<String, LocalContact> contacts = addressBook.findContactsByUIDs(allMembers, knownIds);
+
+        BatchOperation batch = new BatchOperation(addressBook.provider);
+        for (Map.Entry<Long, List<String>> group : pendingMembers.entrySet()) {
+            long id = group.getKey();
+            App.log.fine("Assigning members to group " + id);
+
+            // required for workaround for Android 7 which sets DIRTY flag when only meta-data is changed
+            Set<Long> changeContactIDs = new HashSet<>();
+
+            // delete all memberships and cached memberships for this group
+            for (LocalContact contact : addressBook.getByGroupMembership(id)) {
+                contact.removeGroupMemberships(batch);
+                changeContactIDs.add(contact.getId());
+            }
+
+            // insert memberships
+            for (String uid : group.getValue()) {
+                App.log.fine("Assigning member: " + uid);
+                LocalContact member = contacts.get(uid);
+                if (member != null) {
+                    member.addToGroup(batch, id);
+                    changeContactIDs.add(member.getId());
+                } else {
+                    App.log.warning("Group member not found: " + uid);
+                }
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                // workaround for Android 7 which sets DIRTY flag when only meta-data is changed
+                for (Long contactID : changeContactIDs) {
+                    LocalContact contact = new LocalContact(addressBook, contactID, null, null);
+                    contact.updateHashCode(batch);
+                }
+
+            // remove pending memberships
+            batch.enqueue(new BatchOperation.Operation(
+                    ContentProviderOperation.newUpdate(addressBook.syncAdapterURI(ContentUris.withAppendedId(Groups.CONTENT_URI, id)))
+                            .withValue(COLUMN_PENDING_MEMBERS, null)
+                            .withYieldAllowed(true)
+            ));
+
+            batch.commit();
+        }
     }
 
 
@@ -25,6 +25,10 @@ import org.dmfs.provider.tasks.TaskContract.TaskLists;
 import org.dmfs.provider.tasks.TaskContract.Tasks;
 
 import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import at.bitfire.ical4android.AndroidTaskList;
 import at.bitfire.ical4android.AndroidTaskListFactory;
@@ -97,6 +101,30 @@ public class LocalTaskList extends AndroidTaskList implements LocalCollection {
         return null;
     }
 
+    @Override
+    public Map<String, LocalResource> getByUids(Collection<String> uids) throws CalendarStorageException {
+        Map<String, LocalResource> ret = new HashMap<>(uids.size());
+        for (String uid : uids) {
+            LocalTask task = getByUid(uid);
+            if (task != null) {
+                ret.put(uid, task);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, LocalResource> getByIds(Map<String, Long> ids) throws CalendarStorageException {
+        return getByUids(ids.keySet());
+    }
+
+    @Override
+    public void deleteAll(List<LocalResource> resources) throws CalendarStorageException {
+        for (LocalResource resource : resources) {
+            ((LocalTask) resource).delete();
+        }
+    }
+
     @Override
     public LocalResource[] getDirty() throws CalendarStorageException, FileNotFoundException {
         LocalTask[] tasks = (LocalTask[])queryTasks(Tasks._DIRTY + "!=0 AND " + Tasks._DELETED + "== 0", null);
@@ -126,6 +154,29 @@ public class LocalTaskList extends AndroidTaskList implements LocalCollection {
         }
     }
 
+    @Override
+    public String getCTag() throws CalendarStorageException {
+        try {
+            @Cleanup Cursor cursor = provider.client.query(
+                    syncAdapterURI(TaskLists.getContentUri(TaskProvider.ProviderName.OpenTasks.authority)),
+                    new String[] { COLUMN_CTAG },
+                    TaskLists._ID + "=?", new String[] { String.valueOf(getId()) }, null);
+            if (cursor != null && cursor.moveToNext()) {
+                return cursor.getString(0);
+            }
+            return null;
+        } catch (RemoteException e) {
+            throw new CalendarStorageException("Couldn't read local (last known) CTag", e);
+        }
+    }
+
+    @Override
+    public void setCTag(String cTag) throws CalendarStorageException {
+        ContentValues values = new ContentValues(1);
+        values.put(COLUMN_CTAG, cTag);
+        update(values);
+    }
+
     // helpers
 
     public static boolean tasksProviderAvailable(@NonNull Context context) {
@@ -80,7 +80,7 @@ public class AddressBooksSyncAdapterService extends SyncAdapterService {
                 if (!extras.containsKey(ContentResolver.SYNC_EXTRAS_MANUAL) && !checkSyncConditions(settings))
                     return;
 
-                new RefreshCollections(account, CollectionInfo.Type.ADDRESS_BOOK).run();
+                new RefreshCollections(account, CollectionInfo.Type.ADDRESS_BOOK, extras).run();
 
                 updateLocalAddressBooks(contactsProvider, account);
 
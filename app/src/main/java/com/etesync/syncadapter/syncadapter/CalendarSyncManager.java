@@ -23,14 +23,16 @@ import com.etesync.syncadapter.model.CollectionInfo;
 import com.etesync.syncadapter.model.SyncEntry;
 import com.etesync.syncadapter.resource.LocalCalendar;
 import com.etesync.syncadapter.resource.LocalEvent;
-import com.etesync.syncadapter.resource.LocalResource;
 
 import org.apache.commons.codec.Charsets;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
+import at.bitfire.ical4android.BatchOperation;
 import at.bitfire.ical4android.CalendarStorageException;
 import at.bitfire.ical4android.Event;
 import at.bitfire.ical4android.InvalidCalendarException;
@@ -40,9 +42,13 @@ import okhttp3.HttpUrl;
 /**
  * <p>Synchronization manager for CardDAV collections; handles contacts and groups.</p>
  */
-public class CalendarSyncManager extends SyncManager {
+public class CalendarSyncManager extends SyncManager<Event> {
     final private HttpUrl remote;
 
+    // Events added or updated in the current page, whose operations are enqueued to pageBatch until onPageApplied()
+    final private List<QueuedResource<LocalEvent>> pageEvents = new ArrayList<>();
+    private BatchOperation pageBatch;
+
     public CalendarSyncManager(Context context, Account account, AccountSettings settings, Bundle extras, String authority, SyncResult result, LocalCalendar calendar, HttpUrl remote) throws Exceptions.IntegrityException, Exceptions.GenericCryptoException {
         super(context, account, settings, extras, authority, result, calendar.getName(), CollectionInfo.Type.CALENDAR, account.name);
         localCollection = calendar;
@@ -81,6 +87,27 @@ public class CalendarSyncManager extends SyncManager {
         localCalendar().processDirtyExceptions();
     }
 
+    @Override
+    protected void onPageApplied() throws CalendarStorageException, ContactsStorageException {
+        super.onPageApplied();
+
+        if (pageBatch == null)
+            return;
+
+        // The page's events are all added and updated in one transaction, with a yield point between events
+        BatchOperation batch = pageBatch;
+        pageBatch = null;
+        try {
+            batch.commit();
+            for (QueuedResource<LocalEvent> queued : pageEvents) {
+                queued.local.onCommitted(batch, queued.index);
+                onLocalResourceChanged(queued.uid, queued.local, queued.cEntry);
+            }
+        } finally {
+            pageEvents.clear();
+        }
+    }
+
 
     // helpers
 
@@ -88,41 +115,77 @@ public class CalendarSyncManager extends SyncManager {
         return (LocalCalendar) localCollection;
     }
 
-    protected void processSyncEntry(SyncEntry cEntry) throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException {
+    @Override
+    protected Event parseSyncEntry(SyncEntry cEntry) throws IOException, InvalidCalendarException {
         InputStream is = new ByteArrayInputStream(cEntry.getContent().getBytes(Charsets.UTF_8));
 
         Event[] events = Event.fromStream(is, Charsets.UTF_8);
         if (events.length == 0) {
             App.log.warning("Received VCard without data, ignoring");
-            return;
+            return null;
         } else if (events.length > 1)
             App.log.warning("Received multiple VCALs, using first one");
 
-        Event event = events[0];
-        LocalEvent local = (LocalEvent) localCollection.getByUid(event.uid);
+        return events[0];
+    }
+
+    @Override
+    protected void processSyncEntry(SyncEntry cEntry, Event event) throws IOException, ContactsStorageException, CalendarStorageException {
+        if (event == null) {
+            return;
+        }
+
+        LocalEvent local = (LocalEvent) getLocalResource(event.uid);
 
         if (cEntry.isAction(SyncEntry.Actions.ADD) || cEntry.isAction(SyncEntry.Actions.CHANGE)) {
-            processEvent(event, local);
-        } else {
+            if (isUpToDate(event.uid, local, cEntry)) {
+                App.log.info("Skipping " + event.uid + ", it's already up to date");
+                return;
+            }
+            processEvent(event, local, cEntry);
+        } else if (local != null) {
             App.log.info("Removing local record #" + local.getId() + " which has been deleted on the server");
-            local.delete();
+            deleteLocalResource(event.uid, local);
         }
     }
 
-    private LocalResource processEvent(final Event newData, LocalEvent localEvent) throws IOException, ContactsStorageException, CalendarStorageException {
+    @Override
+    protected String resourceUid(Event event) {
+        return event.uid;
+    }
+
+    /**
+     * Adds or updates the local event. While a page is applied, it's only enqueued to the page's batch and recorded
+     * once that's committed, see {@link #onPageApplied()}.
+     */
+    private void processEvent(final Event newData, LocalEvent localEvent, SyncEntry cEntry) throws IOException, ContactsStorageException, CalendarStorageException {
         // delete local event, if it exists
         if (localEvent != null) {
             App.log.info("Updating " + newData.uid + " in local calendar");
             localEvent.setETag(newData.uid);
-            localEvent.update(newData);
             syncResult.stats.numUpdates++;
+            if (isApplyingPage()) {
+                pageEvents.add(new QueuedResource<>(newData.uid, localEvent, cEntry, localEvent.enqueueUpdate(newData, pageBatch())));
+                return;
+            }
+            localEvent.update(newData);
         } else {
             App.log.info("Adding " + newData.uid + " to local calendar");
             localEvent = new LocalEvent(localCalendar(), newData, newData.uid, newData.uid);
-            localEvent.add();
             syncResult.stats.numInserts++;
+            if (isApplyingPage()) {
+                pageEvents.add(new QueuedResource<>(newData.uid, localEvent, cEntry, localEvent.enqueueAdd(pageBatch())));
+                return;
+            }
+            localEvent.add();
         }
 
-        return localEvent;
+        onLocalResourceChanged(newData.uid, localEvent, cEntry);
+    }
+
+    private BatchOperation pageBatch() {
+        if (pageBatch == null)
+            pageBatch = new BatchOperation(localCalendar().provider);
+        return pageBatch;
     }
 }
@@ -32,6 +32,7 @@ import com.etesync.syncadapter.resource.LocalCalendar;
 import com.etesync.syncadapter.ui.DebugInfoActivity;
 
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -69,17 +70,17 @@ public class CalendarsSyncAdapterService extends SyncAdapterService {
                 if (!extras.containsKey(ContentResolver.SYNC_EXTRAS_MANUAL) && !checkSyncConditions(settings))
                     return;
 
-                new RefreshCollections(account, CollectionInfo.Type.CALENDAR).run();
+                new RefreshCollections(account, CollectionInfo.Type.CALENDAR, extras).run();
 
                 updateLocalCalendars(provider, account, settings);
 
                 HttpUrl principal = HttpUrl.get(settings.getUri());
 
+                List<CollectionSyncScheduler.Task> tasks = new LinkedList<>();
                 for (LocalCalendar calendar : (LocalCalendar[]) LocalCalendar.find(account, provider, LocalCalendar.Factory.INSTANCE, CalendarContract.Calendars.SYNC_EVENTS + "!=0", null)) {
-                    App.log.info("Synchronizing calendar #" + calendar.getId() + ", URL: " + calendar.getName());
-                    CalendarSyncManager syncManager = new CalendarSyncManager(getContext(), account, settings, extras, authority, syncResult, calendar, principal);
-                    syncManager.performSync();
+                    tasks.add(new CalendarSyncTask(account, settings, extras, authority, calendar, principal));
                 }
+                CollectionSyncScheduler.run(getContext(), tasks, syncResult);
             } catch (Exceptions.ServiceUnavailableException e) {
                 syncResult.stats.numIoExceptions++;
                 syncResult.delayUntil = (e.retryAfter > 0) ? e.retryAfter : Constants.DEFAULT_RETRY_DELAY;
@@ -107,6 +108,32 @@ public class CalendarsSyncAdapterService extends SyncAdapterService {
             App.log.info("Calendar sync complete");
         }
 
+        private class CalendarSyncTask extends CollectionSyncScheduler.Task {
+            private final Account account;
+            private final AccountSettings settings;
+            private final Bundle extras;
+            private final String authority;
+            private final LocalCalendar calendar;
+            private final HttpUrl principal;
+
+            CalendarSyncTask(Account account, AccountSettings settings, Bundle extras, String authority, LocalCalendar calendar, HttpUrl principal) throws CalendarStorageException {
+                super(calendar.getName(), calendar.countPending());
+                this.account = account;
+                this.settings = settings;
+                this.extras = extras;
+                this.authority = authority;
+                this.calendar = calendar;
+                this.principal = principal;
+            }
+
+            @Override
+            protected void run(SyncResult syncResult) throws Exception {
+                App.log.info("Synchronizing calendar #" + calendar.getId() + ", URL: " + calendar.getName());
+                CalendarSyncManager syncManager = new CalendarSyncManager(getContext(), account, settings, extras, authority, syncResult, calendar, principal);
+                syncManager.performSync();
+            }
+        }
+
         private void updateLocalCalendars(ContentProviderClient provider, Account account, AccountSettings settings) throws CalendarStorageException {
             EntityDataStore<Persistable> data = ((App) getContext().getApplicationContext()).getData();
             ServiceEntity service = JournalModel.Service.fetch(data, account.name, CollectionInfo.Type.CALENDAR);
@@ -0,0 +1,226 @@
+package com.etesync.syncadapter.syncadapter;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+
+import com.etesync.syncadapter.App;
+import com.etesync.syncadapter.model.ServiceDB;
+import com.etesync.syncadapter.model.Settings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Syncs several collections at the same time. Collections with pending local changes go first, then the ones that
+ * haven't been synced for the longest time.
+ * <p>
+ * All collection syncs of the process share one budget, so the parallel syncs of several accounts and of the address
+ * books (each one is synced on its own) don't add up to more concurrent syncs than configured.
+ */
+public class CollectionSyncScheduler {
+    private static final int MAX_AUTOMATIC_PARALLELISM = 4;
+
+    private static Semaphore budget = null;
+    private static int budgetSize = 0;
+
+    /**
+     * When each collection was last synced successfully, by name. Only known for this process' lifetime, unknown ones
+     * are considered the most stale.
+     */
+    private static final Map<String, Long> lastSyncs = new HashMap<>();
+
+    /**
+     * Pending local changes first, then the least recently synced. Compares the last syncs copied into the tasks by
+     * {@link #copyLastSyncs(List)}, as other syncs finishing meanwhile would make the order inconsistent.
+     */
+    private static final Comparator<Task> order = new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            if (a.pendingChanges != b.pendingChanges) {
+                return (a.pendingChanges > b.pendingChanges) ? -1 : 1;
+            }
+            return (a.lastSync < b.lastSync) ? -1 : ((a.lastSync == b.lastSync) ? 0 : 1);
+        }
+    };
+
+    private CollectionSyncScheduler() {
+    }
+
+    /**
+     * A collection to sync.
+     */
+    public static abstract class Task {
+        final String name;
+        final long pendingChanges;
+        // When the collection was last synced as of scheduling, see copyLastSyncs()
+        long lastSync;
+
+        /**
+         * @param name           unique name of the collection, e.g. its journal uid.
+         * @param pendingChanges the number of local changes waiting to be pushed, if known.
+         */
+        protected Task(@NonNull String name, long pendingChanges) {
+            this.name = name;
+            this.pendingChanges = pendingChanges;
+        }
+
+        /**
+         * Syncs the collection, reporting to the given sync result which is the task's own.
+         */
+        protected abstract void run(SyncResult syncResult) throws Exception;
+    }
+
+    /**
+     * The number of collections synced at the same time, as configured in the app settings. 0 (the default) picks it
+     * from the number of cores.
+     */
+    public static int getParallelism(@NonNull Context context) {
+        int ret = 0;
+        SQLiteOpenHelper dbHelper = new ServiceDB.OpenHelper(context);
+        try {
+            Settings settings = new Settings(dbHelper.getReadableDatabase());
+            ret = settings.getInt(App.SYNC_PARALLELISM, 0);
+        } finally {
+            dbHelper.close();
+        }
+
+        if (ret <= 0) {
+            ret = Math.min(Runtime.getRuntime().availableProcessors(), MAX_AUTOMATIC_PARALLELISM);
+        }
+        return Math.max(ret, 1);
+    }
+
+    private static synchronized Semaphore getBudget(int size) {
+        // Syncs holding permits of a replaced budget just release them to the old one
+        if ((budget == null) || (budgetSize != size)) {
+            budget = new Semaphore(size, true);
+            budgetSize = size;
+        }
+        return budget;
+    }
+
+    private static synchronized void copyLastSyncs(List<Task> tasks) {
+        for (Task task : tasks) {
+            Long lastSync = lastSyncs.get(task.name);
+            task.lastSync = (lastSync != null) ? lastSync : 0;
+        }
+    }
+
+    private static synchronized void setLastSync(String name, long time) {
+        lastSyncs.put(name, time);
+    }
+
+    /**
+     * Runs a single collection sync within the shared budget.
+     */
+    public static void run(@NonNull Context context, @NonNull Task task, @NonNull SyncResult syncResult) throws Exception {
+        Semaphore budget = getBudget(getParallelism(context));
+        budget.acquire();
+        try {
+            runTask(task, syncResult);
+        } finally {
+            budget.release();
+        }
+    }
+
+    /**
+     * Runs the tasks, as many at a time as the budget allows, and waits for all of them. Their sync results are
+     * added up to the given one. If any of them failed, the first failure is rethrown once all are done.
+     */
+    public static void run(@NonNull final Context context, @NonNull List<? extends Task> tasks, @NonNull SyncResult syncResult) throws Exception {
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        List<Task> ordered = new ArrayList<>(tasks);
+        copyLastSyncs(ordered);
+        Collections.sort(ordered, order);
+
+        int parallelism = getParallelism(context);
+        final Semaphore budget = getBudget(parallelism);
+        App.log.info("Syncing " + ordered.size() + " collections, " + parallelism + " at a time");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, ordered.size()));
+        List<Future<SyncResult>> futures = new ArrayList<>(ordered.size());
+        try {
+            for (final Task task : ordered) {
+                futures.add(executor.submit(new Callable<SyncResult>() {
+                    @Override
+                    public SyncResult call() throws Exception {
+                        // required for dav4android (ServiceLoader)
+                        Thread.currentThread().setContextClassLoader(context.getClassLoader());
+
+                        SyncResult result = new SyncResult();
+                        budget.acquire();
+                        try {
+                            runTask(task, result);
+                        } finally {
+                            budget.release();
+                        }
+                        return result;
+                    }
+                }));
+            }
+
+            Exception firstError = null;
+            for (Future<SyncResult> future : futures) {
+                try {
+                    addSyncResult(syncResult, future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (firstError == null) {
+                        firstError = (Exception) cause;
+                    }
+                }
+            }
+
+            if (firstError != null) {
+                throw firstError;
+            }
+        } finally {
+            // Interrupts the running syncs if we bailed out, e.g. because the sync was cancelled
+            executor.shutdownNow();
+        }
+    }
+
+    private static void runTask(Task task, SyncResult syncResult) throws Exception {
+        long start = System.currentTimeMillis();
+        task.run(syncResult);
+        if (!syncResult.hasError()) {
+            setLastSync(task.name, start);
+        }
+    }
+
+    private static void addSyncResult(SyncResult to, SyncResult from) {
+        to.stats.numAuthExceptions += from.stats.numAuthExceptions;
+        to.stats.numIoExceptions += from.stats.numIoExceptions;
+        to.stats.numParseExceptions += from.stats.numParseExceptions;
+        to.stats.numConflictDetectedExceptions += from.stats.numConflictDetectedExceptions;
+        to.stats.numInserts += from.stats.numInserts;
+        to.stats.numUpdates += from.stats.numUpdates;
+        to.stats.numDeletes += from.stats.numDeletes;
+        to.stats.numEntries += from.stats.numEntries;
+        to.stats.numSkippedEntries += from.stats.numSkippedEntries;
+        to.databaseError |= from.databaseError;
+        to.tooManyDeletions |= from.tooManyDeletions;
+        to.tooManyRetries |= from.tooManyRetries;
+        to.fullSyncRequested |= from.fullSyncRequested;
+        to.partialSyncUnavailable |= from.partialSyncUnavailable;
+        to.moreRecordsToGet |= from.moreRecordsToGet;
+        to.delayUntil = Math.max(to.delayUntil, from.delayUntil);
+    }
+}
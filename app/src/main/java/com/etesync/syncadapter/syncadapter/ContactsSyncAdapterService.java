@@ -79,8 +79,13 @@ public class ContactsSyncAdapterService extends SyncAdapterService {
                 App.log.info("Taking settings from: "  + addressBook.getMainAccount());
 
                 HttpUrl principal = HttpUrl.get(settings.getUri());
-                ContactsSyncManager syncManager = new ContactsSyncManager(getContext(), account, settings, extras, authority, provider, syncResult, addressBook, principal);
-                syncManager.performSync();
+                final ContactsSyncManager syncManager = new ContactsSyncManager(getContext(), account, settings, extras, authority, provider, syncResult, addressBook, principal);
+                CollectionSyncScheduler.run(getContext(), new CollectionSyncScheduler.Task(addressBook.getURL(), 0) {
+                    @Override
+                    protected void run(SyncResult syncResult) {
+                        syncManager.performSync();
+                    }
+                }, syncResult);
             } catch (Exception | OutOfMemoryError e) {
                 int syncPhase = R.string.sync_phase_journals;
                 String title = getContext().getString(R.string.sync_error_contacts, account.name);
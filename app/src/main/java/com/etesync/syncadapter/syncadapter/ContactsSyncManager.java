@@ -42,8 +42,11 @@ import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
 import at.bitfire.ical4android.CalendarStorageException;
 import at.bitfire.vcard4android.BatchOperation;
@@ -60,10 +63,19 @@ import okhttp3.ResponseBody;
 /**
  * <p>Synchronization manager for CardDAV collections; handles contacts and groups.</p>
  */
-public class ContactsSyncManager extends SyncManager {
+public class ContactsSyncManager extends SyncManager<Contact> {
+    // A PHOTO property, possibly grouped (item1.PHOTO), at the start of an unfolded line
+    private static final Pattern PHOTO_PROPERTY = Pattern.compile("^([\\w-]+\\.)?PHOTO[;:]", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
     final private ContentProviderClient provider;
     final private HttpUrl remote;
 
+    // Contacts changed in the current page whose hash codes still have to be stored, see onPageApplied()
+    final private List<LocalContact> pageHashCodes = new ArrayList<>();
+    // Contacts added or updated in the current page, whose operations are enqueued to pageBatch until onPageApplied()
+    final private List<QueuedResource<LocalContact>> pageContacts = new ArrayList<>();
+    private BatchOperation pageBatch;
+
     public ContactsSyncManager(Context context, Account account, AccountSettings settings, Bundle extras, String authority, ContentProviderClient provider, SyncResult result, LocalAddressBook localAddressBook, HttpUrl principal) throws Exceptions.IntegrityException, Exceptions.GenericCryptoException, ContactsStorageException {
         super(context, account, settings, extras, authority, result, localAddressBook.getURL(), CollectionInfo.Type.ADDRESS_BOOK, localAddressBook.getMainAccount().name);
         this.provider = provider;
@@ -145,12 +157,44 @@ public class ContactsSyncManager extends SyncManager {
         batch.commit();
     }
 
+    @Override
+    protected void onPageApplied() throws CalendarStorageException, ContactsStorageException {
+        super.onPageApplied();
+
+        if (pageBatch != null) {
+            // The page's contacts are all added and updated in one transaction, with a yield point between contacts
+            BatchOperation batch = pageBatch;
+            pageBatch = null;
+            try {
+                batch.commit();
+                for (QueuedResource<LocalContact> queued : pageContacts) {
+                    queued.local.onCommitted(batch, queued.index);
+                    onLocalResourceChanged(queued.uid, queued.local, queued.cEntry);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                        pageHashCodes.add(queued.local);
+                }
+            } finally {
+                pageContacts.clear();
+            }
+        }
+
+        if (pageHashCodes.isEmpty())
+            return;
+
+        // The contacts are written already, so their hash codes can be computed and stored in one batch
+        BatchOperation batch = new BatchOperation(localAddressBook().provider);
+        for (LocalContact contact : pageHashCodes)
+            contact.updateHashCode(batch);
+        pageHashCodes.clear();
+        batch.commit();
+    }
+
     @Override
     protected void postProcess() throws CalendarStorageException, ContactsStorageException {
         super.postProcess();
         /* VCard4 group handling: there are group contacts and individual contacts */
         App.log.info("Assigning memberships of downloaded contact groups");
-        LocalGroup.applyPendingMemberships(localAddressBook());
+        LocalGroup.applyPendingMemberships(localAddressBook(), getKnownLocalIds());
     }
 
 
@@ -160,30 +204,73 @@ public class ContactsSyncManager extends SyncManager {
         return (LocalAddressBook) localCollection;
     }
 
-    protected void processSyncEntry(SyncEntry cEntry) throws IOException, ContactsStorageException, CalendarStorageException {
+    @Override
+    protected Contact parseSyncEntry(SyncEntry cEntry) throws IOException {
+        return parseContact(cEntry, new ResourceDownloader());
+    }
+
+    @Override
+    protected Contact parseStoredSyncEntry(SyncEntry cEntry) throws IOException {
+        // Don't download the photos of contacts which will be overwritten anyway
+        return parseContact(cEntry, null);
+    }
+
+    @Override
+    protected Contact completeStoredResource(SyncEntry cEntry, Contact contact) throws IOException {
+        // Parse again if the photo is left out because it has to be downloaded
+        if ((contact.photo == null) && PHOTO_PROPERTY.matcher(cEntry.getContent()).find()) {
+            Contact complete = parseContact(cEntry, new ResourceDownloader());
+            if (complete != null) {
+                return complete;
+            }
+        }
+        return contact;
+    }
+
+    private Contact parseContact(SyncEntry cEntry, Contact.Downloader downloader) throws IOException {
         InputStream is = new ByteArrayInputStream(cEntry.getContent().getBytes(Charsets.UTF_8));
-        Contact.Downloader downloader = new ResourceDownloader();
 
         Contact[] contacts = Contact.fromStream(is, Charsets.UTF_8, downloader);
         if (contacts.length == 0) {
             App.log.warning("Received VCard without data, ignoring");
-            return;
+            return null;
         } else if (contacts.length > 1)
             App.log.warning("Received multiple VCards, using first one");
 
-        Contact contact = contacts[0];
-        LocalResource local = (LocalResource) localCollection.getByUid(contact.uid);
+        return contacts[0];
+    }
+
+    @Override
+    protected void processSyncEntry(SyncEntry cEntry, Contact contact) throws IOException, ContactsStorageException, CalendarStorageException {
+        if (contact == null) {
+            return;
+        }
+
+        LocalResource local = getLocalResource(contact.uid);
 
 
         if (cEntry.isAction(SyncEntry.Actions.ADD) || cEntry.isAction(SyncEntry.Actions.CHANGE)) {
-            processContact(contact, local);
-        } else {
+            if (isUpToDate(contact.uid, local, cEntry)) {
+                App.log.info("Skipping " + contact.uid + ", it's already up to date");
+                return;
+            }
+            processContact(contact, local, cEntry);
+        } else if (local != null) {
             App.log.info("Removing local record #" + local.getId() + " which has been deleted on the server");
-            local.delete();
+            deleteLocalResource(contact.uid, local);
         }
     }
 
-    private LocalResource processContact(final Contact newData, LocalResource local) throws IOException, ContactsStorageException {
+    @Override
+    protected String resourceUid(Contact contact) {
+        return contact.uid;
+    }
+
+    /**
+     * Adds or updates the local resource. While a page is applied, contacts are only enqueued to the page's batch and
+     * recorded once it's committed, see {@link #onPageApplied()}.
+     */
+    private void processContact(final Contact newData, LocalResource local, SyncEntry cEntry) throws IOException, ContactsStorageException {
         String uuid = newData.uid;
         // update local contact, if it exists
         if (local != null) {
@@ -200,8 +287,12 @@ public class ContactsSyncManager extends SyncManager {
                 // update contact
                 LocalContact contact = (LocalContact) local;
                 contact.eTag = uuid;
-                contact.update(newData);
                 syncResult.stats.numUpdates++;
+                if (isApplyingPage()) {
+                    pageContacts.add(new QueuedResource<>(uuid, contact, cEntry, contact.enqueueUpdate(newData, pageBatch())));
+                    return;
+                }
+                contact.update(newData);
 
             } else {
                 // group has become an individual contact or vice versa
@@ -219,23 +310,35 @@ public class ContactsSyncManager extends SyncManager {
                 App.log.log(Level.INFO, "Creating local group", newData);
                 LocalGroup group = new LocalGroup(localAddressBook(), newData, uuid, uuid);
                 group.create();
+                syncResult.stats.numInserts++;
 
                 local = group;
             } else {
                 App.log.log(Level.INFO, "Creating local contact", newData);
                 LocalContact contact = new LocalContact(localAddressBook(), newData, uuid, uuid);
+                syncResult.stats.numInserts++;
+                if (isApplyingPage()) {
+                    pageContacts.add(new QueuedResource<>(uuid, contact, cEntry, contact.enqueueCreate(pageBatch())));
+                    return;
+                }
                 contact.create();
 
                 local = contact;
             }
-            syncResult.stats.numInserts++;
         }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && local instanceof LocalContact)
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && local instanceof LocalContact) {
             // workaround for Android 7 which sets DIRTY flag when only meta-data is changed
-            ((LocalContact)local).updateHashCode(null);
+            ((LocalContact) local).updateHashCode(null);
+        }
+
+        onLocalResourceChanged(uuid, local, cEntry);
+    }
 
-        return local;
+    private BatchOperation pageBatch() {
+        if (pageBatch == null)
+            pageBatch = new BatchOperation(localAddressBook().provider);
+        return pageBatch;
     }
 
     // downloader helper class
@@ -0,0 +1,127 @@
+package com.etesync.syncadapter.syncadapter;
+
+import com.etesync.syncadapter.model.JournalEntity;
+import com.etesync.syncadapter.model.LocalUidEntity;
+import com.etesync.syncadapter.resource.LocalResource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.requery.Persistable;
+import io.requery.sql.EntityDataStore;
+
+/**
+ * The local resource ids of a journal's uids, loaded once per sync and written back with {@link #save()}. The ids
+ * may be outdated (e.g. if the user deleted a resource in the meantime), so they must be checked against the content
+ * provider when used, see {@link com.etesync.syncadapter.resource.LocalCollection#getByIds(Map)}.
+ */
+class LocalUidMap {
+    private final EntityDataStore<Persistable> data;
+    private final JournalEntity journal;
+
+    private final Map<String, LocalUidEntity> rows = new HashMap<>();
+    // By identity, as the rows change while in there
+    private final Set<LocalUidEntity> changed = Collections.newSetFromMap(new IdentityHashMap<LocalUidEntity, Boolean>());
+    private final Map<String, LocalUidEntity> removed = new HashMap<>();
+
+    LocalUidMap(EntityDataStore<Persistable> data, JournalEntity journal) {
+        this.data = data;
+        this.journal = journal;
+
+        for (LocalUidEntity row : data.select(LocalUidEntity.class).where(LocalUidEntity.JOURNAL.eq(journal)).get()) {
+            rows.put(row.getUid(), row);
+        }
+    }
+
+    Map<String, Long> getIds() {
+        return getIds(rows.keySet());
+    }
+
+    /**
+     * @return the known ids of the given uids. Uids without one are left out.
+     */
+    Map<String, Long> getIds(Collection<String> uids) {
+        Map<String, Long> ret = new HashMap<>();
+        for (String uid : uids) {
+            LocalUidEntity row = rows.get(uid);
+            if (row != null) {
+                ret.put(uid, row.getLocalId());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the hash of the content last applied to the uid's resource, or null if unknown.
+     */
+    String getContentHash(String uid) {
+        LocalUidEntity row = rows.get(uid);
+        return (row != null) ? row.getContentHash() : null;
+    }
+
+    void put(String uid, LocalResource local, String contentHash) {
+        LocalUidEntity row = rows.get(uid);
+        if (row == null) {
+            row = removed.remove(uid);
+            if (row == null) {
+                row = new LocalUidEntity();
+                row.setUid(uid);
+                row.setJournal(journal);
+            }
+            rows.put(uid, row);
+        }
+        row.setLocalId(local.getId());
+        row.setContentHash(contentHash);
+        changed.add(row);
+    }
+
+    void remove(String uid) {
+        LocalUidEntity row = rows.remove(uid);
+        if (row != null) {
+            changed.remove(row);
+            if (row.getId() != 0) {
+                removed.put(uid, row);
+            }
+        }
+    }
+
+    void clear() {
+        for (String uid : new ArrayList<>(rows.keySet())) {
+            remove(uid);
+        }
+    }
+
+    /**
+     * Writes the changes since the last call to the database.
+     */
+    void save() {
+        List<LocalUidEntity> inserted = new ArrayList<>();
+        List<LocalUidEntity> updated = new ArrayList<>();
+        for (LocalUidEntity row : changed) {
+            if (row.getId() == 0) {
+                inserted.add(row);
+            } else {
+                updated.add(row);
+            }
+        }
+
+        if (!inserted.isEmpty()) {
+            data.insert(inserted);
+        }
+        if (!updated.isEmpty()) {
+            data.update(updated);
+        }
+        if (!removed.isEmpty()) {
+            data.delete(removed.values());
+        }
+
+        changed.clear();
+        removed.clear();
+    }
+}
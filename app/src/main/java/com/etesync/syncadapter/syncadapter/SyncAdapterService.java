@@ -14,6 +14,7 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SyncResult;
@@ -30,7 +31,6 @@ import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.util.Pair;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -40,6 +40,7 @@ import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.Constants;
 import com.etesync.syncadapter.HttpClient;
 import com.etesync.syncadapter.InvalidAccountException;
+import com.etesync.syncadapter.JournalListCache;
 import com.etesync.syncadapter.R;
 import com.etesync.syncadapter.journalmanager.Crypto;
 import com.etesync.syncadapter.journalmanager.Exceptions;
@@ -71,7 +72,8 @@ public abstract class SyncAdapterService extends Service {
     public static abstract class SyncAdapter extends AbstractThreadedSyncAdapter {
 
         public SyncAdapter(Context context) {
-            super(context, false);
+            // parallel syncs of different accounts (e.g. address books) are limited by CollectionSyncScheduler
+            super(context, false, true);
         }
 
         @Override
@@ -130,13 +132,20 @@ public abstract class SyncAdapterService extends Service {
         }
 
         protected class RefreshCollections {
+            /**
+             * Manual syncs of both adapters usually come together, so they may still share a very recent list.
+             */
+            final static private long MANUAL_MAX_AGE = 5000;
+
             final private Account account;
             final private Context context;
             final private CollectionInfo.Type serviceType;
+            final private boolean manual;
 
-            RefreshCollections(Account account, CollectionInfo.Type serviceType) {
+            RefreshCollections(Account account, CollectionInfo.Type serviceType, Bundle extras) {
                 this.account = account;
                 this.serviceType = serviceType;
+                manual = extras.containsKey(ContentResolver.SYNC_EXTRAS_MANUAL);
                 context = getContext();
             }
 
@@ -148,25 +157,9 @@ public abstract class SyncAdapterService extends Service {
 
                 JournalManager journalsManager = new JournalManager(httpClient, HttpUrl.get(settings.getUri()));
 
-                List<Pair<JournalManager.Journal, CollectionInfo>> journals = new LinkedList<>();
-
-                for (JournalManager.Journal journal : journalsManager.list()) {
-                    Crypto.CryptoManager crypto;
-                    if (journal.getKey() != null) {
-                        crypto = new Crypto.CryptoManager(journal.getVersion(), settings.getKeyPair(), journal.getKey());
-                    } else {
-                        crypto = new Crypto.CryptoManager(journal.getVersion(), settings.password(), journal.getUid());
-                    }
-
-                    journal.verify(crypto);
-
-                    CollectionInfo info = CollectionInfo.fromJson(journal.getContent(crypto));
-                    info.updateFromJournal(journal);
-
-                    if (info.type.equals(serviceType)) {
-                        journals.add(new Pair<>(journal, info));
-                    }
-                }
+                JournalListCache cache = JournalListCache.get(account.name);
+                List<Pair<JournalManager.Journal, CollectionInfo>> journals =
+                        cache.getCollections(settings, journalsManager, serviceType, manual ? MANUAL_MAX_AGE : JournalListCache.TTL);
 
                 if (journals.isEmpty()) {
                     CollectionInfo info = CollectionInfo.defaultForServiceType(serviceType);
@@ -174,6 +167,7 @@ public abstract class SyncAdapterService extends Service {
                     Crypto.CryptoManager crypto = new Crypto.CryptoManager(info.version, settings.password(), info.uid);
                     JournalManager.Journal journal = new JournalManager.Journal(crypto, info.toJson(), info.uid);
                     journalsManager.create(journal);
+                    cache.invalidate();
                     journals.add(new Pair<>(journal, info));
                 }
 
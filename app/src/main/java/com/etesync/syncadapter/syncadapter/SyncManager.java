@@ -19,8 +19,10 @@ import com.etesync.syncadapter.AccountSettings;
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.Constants;
 import com.etesync.syncadapter.HttpClient;
+import com.etesync.syncadapter.HttpMetrics;
 import com.etesync.syncadapter.NotificationHelper;
 import com.etesync.syncadapter.R;
+import com.etesync.syncadapter.journalmanager.BatchSizeController;
 import com.etesync.syncadapter.journalmanager.Crypto;
 import com.etesync.syncadapter.journalmanager.Exceptions;
 import com.etesync.syncadapter.journalmanager.JournalEntryManager;
@@ -28,6 +30,7 @@ import com.etesync.syncadapter.model.CollectionInfo;
 import com.etesync.syncadapter.model.EntryEntity;
 import com.etesync.syncadapter.model.JournalEntity;
 import com.etesync.syncadapter.model.JournalModel;
+import com.etesync.syncadapter.model.OutboxEntity;
 import com.etesync.syncadapter.model.ServiceEntity;
 import com.etesync.syncadapter.model.SyncEntry;
 import com.etesync.syncadapter.resource.LocalCollection;
@@ -35,14 +38,26 @@ import com.etesync.syncadapter.resource.LocalResource;
 import com.etesync.syncadapter.ui.DebugInfoActivity;
 import com.etesync.syncadapter.ui.ViewCollectionActivity;
 
-import org.apache.commons.collections4.ListUtils;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import at.bitfire.ical4android.CalendarStorageException;
@@ -55,9 +70,48 @@ import okhttp3.OkHttpClient;
 import static com.etesync.syncadapter.Constants.KEY_ACCOUNT;
 import static com.etesync.syncadapter.model.SyncEntry.Actions.ADD;
 
-abstract public class SyncManager {
-    private static final int MAX_FETCH = 50;
-    private static final int MAX_PUSH = 30;
+abstract public class SyncManager<T> {
+    private static final int MAX_FETCH = 50; // Initial page size, adapted by fetchSizes
+    private static final int MAX_FETCH_LOWER = 5;
+    private static final int MAX_FETCH_UPPER = 500;
+    private static final int MAX_PUSH = 30; // Initial push size, adapted by pushSizes
+    private static final int MAX_PUSH_LOWER = 1;
+    private static final int MAX_PUSH_UPPER = 200;
+    private static final long BATCH_TARGET_MILLIS = 5000;
+    private static final long FETCH_TARGET_BYTES = 2 * 1024 * 1024;
+    private static final long PUSH_TARGET_BYTES = 1024 * 1024;
+    /**
+     * How many times pushing may fetch what others pushed in the meantime and try again, before failing the sync.
+     */
+    private static final int MAX_PUSH_REBASES = 3;
+    /**
+     * Local CTag of collections being rebuilt from the stored journal, see {@link #rebuildFromStoredJournal()}.
+     */
+    private static final String CTAG_REBUILDING = "rebuilding";
+
+    /**
+     * Page and push sizes by journal uid, adapted to the link and entry sizes seen so far. Kept across syncs, so a
+     * journal of large entries doesn't start from scratch every time.
+     */
+    private static final Map<String, BatchSizeController> fetchSizes = new HashMap<>();
+    private static final Map<String, BatchSizeController> pushSizes = new HashMap<>();
+    /**
+     * Number of downloaded pages buffered ahead of {@link #applyRemoteEntries()}, on top of the one being downloaded.
+     */
+    private static final int PREFETCH_PAGES = 1;
+
+    /**
+     * Decrypting and parsing remote entries is CPU bound and doesn't touch the local collection, so it's done for a
+     * whole page in parallel. Only applying the parsed resources has to happen in journal order.
+     */
+    private static final ExecutorService decodeExecutor;
+
+    static {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        decodeExecutor = executor;
+    }
 
     protected final NotificationHelper notificationManager;
     protected final CollectionInfo info;
@@ -86,15 +140,74 @@ abstract public class SyncManager {
      */
     private String remoteCTag = null;
 
+    /**
+     * The number of remote entries applied in this sync, by action, to notify the user about.
+     */
+    private int remoteAdded = 0;
+    private int remoteChanged = 0;
+    private int remoteDeleted = 0;
+
+    /**
+     * The local resources of the remote page being applied by uid, and the ones it deleted. Null when not applying a
+     * page.
+     */
+    private Map<String, LocalResource> pageResources;
+    private List<LocalResource> pageDeletes;
+
+    /**
+     * Uids of the local resources that remote entries changed since the local entries were last applied, see
+     * {@link #applyLocalEntries()}.
+     */
+    private final Set<String> remoteChangedUids = new HashSet<>();
+
+    /**
+     * The local resources' ids by uid, so they don't have to be searched for.
+     */
+    private LocalUidMap localUids;
+
     /**
      * Syncable local journal entries.
      */
     private List<JournalEntryManager.Entry> localEntries;
 
     /**
-     * Syncable remote journal entries (fetch from server).
+     * The plaintext of {@link #localEntries}, in the same order, so they don't have to be decrypted again.
+     */
+    private List<SyncEntry> localSyncEntries;
+
+    /**
+     * The outbox rows of {@link #localEntries} and the resources they were created from, in the same order.
+     */
+    private List<OutboxEntity> outbox;
+    private List<LocalResource> outboxResources;
+
+    /**
+     * The page of remote entries fetched and not applied yet. Only one page is held at a time, on top of the ones
+     * {@link #remotePages} downloads ahead, and each page is cut off once it holds {@link #FETCH_TARGET_BYTES} of content.
      */
     private List<JournalEntryManager.Entry> remoteEntries;
+    private JournalEntryManager.PageIterator remotePages;
+    /**
+     * Whether {@link #remotePages} starts before {@link #remoteCTag}, with entries which are only to be stored.
+     */
+    private boolean storingAppliedEntries;
+    /**
+     * Decoding of remote entries that started while their page was still downloading, by entry.
+     */
+    private final Map<JournalEntryManager.Entry, Future<DecodedEntry<T>>> pendingDecodes = Collections.synchronizedMap(new IdentityHashMap<JournalEntryManager.Entry, Future<DecodedEntry<T>>>());
+    private final JournalEntryManager.EntryListener decodeListener = new JournalEntryManager.EntryListener() {
+        @Override
+        public void onEntry(JournalEntryManager.Entry entry) {
+            pendingDecodes.put(entry, submitDecoder(entry));
+        }
+
+        @Override
+        public void onDiscarded(List<JournalEntryManager.Entry> entries) {
+            discardDecoders(entries);
+        }
+    };
+    private final BatchSizeController fetchSize;
+    private final BatchSizeController pushSize;
 
     /**
      * Dirty and deleted resources. We need to save them so we safely ignore ones that were added after we started.
@@ -125,10 +238,28 @@ abstract public class SyncManager {
         App.log.info(String.format(Locale.getDefault(), "Syncing collection %s (version: %d)", journalUid, info.version));
 
         if (getJournalEntity().getEncryptedKey() != null) {
-            crypto = new Crypto.CryptoManager(info.version, settings.getKeyPair(), getJournalEntity().getEncryptedKey());
+            crypto = Crypto.CryptoManagerCache.get(info.uid, info.version, settings.getKeyPair(), getJournalEntity().getEncryptedKey());
         } else {
-            crypto = new Crypto.CryptoManager(info.version, settings.password(), info.uid);
+            crypto = Crypto.CryptoManagerCache.get(info.version, settings.password(), info.uid);
         }
+
+        synchronized (fetchSizes) {
+            BatchSizeController size = fetchSizes.get(journalUid);
+            if (size == null) {
+                size = new BatchSizeController(MAX_FETCH, MAX_FETCH_LOWER, MAX_FETCH_UPPER, BATCH_TARGET_MILLIS, FETCH_TARGET_BYTES);
+                fetchSizes.put(journalUid, size);
+            }
+            fetchSize = size;
+        }
+        synchronized (pushSizes) {
+            BatchSizeController size = pushSizes.get(journalUid);
+            if (size == null) {
+                size = new BatchSizeController(MAX_PUSH, MAX_PUSH_LOWER, MAX_PUSH_UPPER, BATCH_TARGET_MILLIS, PUSH_TARGET_BYTES);
+                pushSizes.put(journalUid, size);
+            }
+            pushSize = size;
+        }
+        HttpMetrics.batchSizes(journalUid, fetchSize, pushSize);
     }
 
     protected abstract int notificationId();
@@ -159,6 +290,16 @@ abstract public class SyncManager {
             App.log.info("Sync phase: " + context.getString(syncPhase));
             prepareLocal();
 
+            if (needsRebuild()) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                syncPhase = R.string.sync_phase_rebuild_local;
+                App.log.info("Sync phase: " + context.getString(syncPhase));
+                localCollection.setCTag(CTAG_REBUILDING);
+                rebuildFromStoredJournal();
+                localCollection.setCTag(remoteCTag);
+            }
+
             do {
                 if (Thread.interrupted())
                     throw new InterruptedException();
@@ -171,7 +312,7 @@ abstract public class SyncManager {
                 syncPhase = R.string.sync_phase_apply_remote_entries;
                 App.log.info("Sync phase: " + context.getString(syncPhase));
                 applyRemoteEntries();
-            } while (remoteEntries.size() == MAX_FETCH);
+            } while (remotePages.hasNext());
 
             /* Create journal entries out of local changes. */
             if (Thread.interrupted())
@@ -202,6 +343,7 @@ abstract public class SyncManager {
             notifyUserOnSync();
 
             App.log.info("Finished sync with CTag=" + remoteCTag);
+            App.log.info("HTTP metrics:\n" + HttpMetrics.report());
         } catch (IOException e) {
             App.log.log(Level.WARNING, "I/O exception during sync, trying again later", e);
             syncResult.stats.numIoExceptions++;
@@ -231,51 +373,39 @@ abstract public class SyncManager {
             if (!(e instanceof Exceptions.UnauthorizedException)) {
                 detailsIntent.putExtra(DebugInfoActivity.KEY_AUTHORITY, authority);
                 detailsIntent.putExtra(DebugInfoActivity.KEY_PHASE, syncPhase);
+                detailsIntent.putExtra(DebugInfoActivity.KEY_HTTP_METRICS, HttpMetrics.report());
             }
 
             notificationManager.notify(getSyncErrorTitle(), context.getString(syncPhase));
+        } finally {
+            if (remotePages != null) {
+                remotePages.close();
+            }
+            discardDecoders(new ArrayList<>(pendingDecodes.keySet()));
         }
     }
 
     private void notifyUserOnSync() {
-        if (remoteEntries.isEmpty()) {
+        int total = remoteAdded + remoteChanged + remoteDeleted;
+        if (total == 0) {
             return;
         }
         NotificationHelper notificationHelper = new NotificationHelper(context,
                 String.valueOf(System.currentTimeMillis()), notificationId());
 
-        int deleted = 0;
-        int added = 0;
-        int changed = 0;
-        for (JournalEntryManager.Entry entry : remoteEntries) {
-            SyncEntry cEntry = SyncEntry.fromJournalEntry(crypto, entry);
-            SyncEntry.Actions action = cEntry.getAction();
-            switch (action) {
-                case ADD:
-                    added++;
-                    break;
-                case DELETE:
-                    deleted++;
-                    break;
-                case CHANGE:
-                    changed++;
-                    break;
-            }
-        }
-
         Resources resources = context.getResources();
         Intent intent = ViewCollectionActivity.newIntent(context, account, info);
         notificationHelper.notify(getSyncSuccessfullyTitle(),
                 String.format(context.getString(R.string.sync_successfully_modified),
                         resources.getQuantityString(R.plurals.sync_successfully,
-                                remoteEntries.size(), remoteEntries.size())),
+                                total, total)),
                 String.format(context.getString(R.string.sync_successfully_modified_full),
                         resources.getQuantityString(R.plurals.sync_successfully,
-                                added, added),
+                                remoteAdded, remoteAdded),
                         resources.getQuantityString(R.plurals.sync_successfully,
-                                changed, changed),
+                                remoteChanged, remoteChanged),
                         resources.getQuantityString(R.plurals.sync_successfully,
-                                deleted, deleted)),
+                                remoteDeleted, remoteDeleted)),
                 intent);
     }
 
@@ -289,7 +419,141 @@ abstract public class SyncManager {
         return true;
     }
 
-    abstract protected void processSyncEntry(SyncEntry cEntry) throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException;
+    /**
+     * Parses the resource (vCard, iCalendar, ...) of a sync entry. This is called concurrently from worker threads,
+     * so it must not access the local collection.
+     *
+     * @return the parsed resource, or null if the entry doesn't contain one.
+     */
+    abstract protected T parseSyncEntry(SyncEntry cEntry) throws IOException, InvalidCalendarException;
+
+    /**
+     * Like {@link #parseSyncEntry(SyncEntry)}, for the stored entries parsed while rebuilding the local collection, most
+     * of which are overwritten by later entries. It may leave out what's expensive to get, e.g. external resources,
+     * which {@link #completeStoredResource(SyncEntry, Object)} then adds to the ones which are applied.
+     */
+    protected T parseStoredSyncEntry(SyncEntry cEntry) throws IOException, InvalidCalendarException {
+        return parseSyncEntry(cEntry);
+    }
+
+    /**
+     * Adds what {@link #parseStoredSyncEntry(SyncEntry)} left out to a resource which is applied. This is called
+     * concurrently from worker threads, like {@link #parseSyncEntry(SyncEntry)}.
+     *
+     * @return the complete resource, which may be the given one.
+     */
+    protected T completeStoredResource(SyncEntry cEntry, T resource) throws IOException, InvalidCalendarException {
+        return resource;
+    }
+
+    /**
+     * @return the uid of the local resource a parsed resource is applied to.
+     */
+    abstract protected String resourceUid(T resource);
+
+    /**
+     * Applies an already parsed resource to the local collection.
+     */
+    abstract protected void processSyncEntry(SyncEntry cEntry, T resource) throws IOException, ContactsStorageException, CalendarStorageException;
+
+    protected void processSyncEntry(SyncEntry cEntry) throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException {
+        processSyncEntry(cEntry, parseSyncEntry(cEntry));
+    }
+
+    /**
+     * Looks up the local resource with the given uid, from the ones prefetched for the page being applied if any.
+     */
+    protected LocalResource getLocalResource(String uid) throws CalendarStorageException, ContactsStorageException {
+        if (pageResources != null) {
+            return pageResources.get(uid);
+        }
+
+        LocalResource ret = localCollection.getByIds(localUids.getIds(Collections.singleton(uid))).get(uid);
+        if (ret == null) {
+            ret = (LocalResource) localCollection.getByUid(uid);
+        }
+        return ret;
+    }
+
+    /**
+     * @return whether the sync entry's content is what was last applied to the local resource, so applying it again
+     * can be skipped.
+     */
+    protected boolean isUpToDate(String uid, LocalResource local, SyncEntry cEntry) {
+        return (local != null) && contentHash(cEntry).equals(localUids.getContentHash(uid));
+    }
+
+    /**
+     * Records that the resource with the given uid was added or replaced while applying a sync entry.
+     */
+    protected void onLocalResourceChanged(String uid, LocalResource local, SyncEntry cEntry) {
+        if (pageResources != null) {
+            pageResources.put(uid, local);
+            remoteChangedUids.add(uid);
+        }
+        localUids.put(uid, local, contentHash(cEntry));
+    }
+
+    /**
+     * Deletes a local resource because a sync entry said so. While applying a page, the deletion is queued and done
+     * together with the page's other deletions.
+     */
+    protected void deleteLocalResource(String uid, LocalResource local) throws CalendarStorageException, ContactsStorageException {
+        if (pageDeletes != null) {
+            pageResources.remove(uid);
+            pageDeletes.add(local);
+            remoteChangedUids.add(uid);
+        } else {
+            local.delete();
+        }
+        localUids.remove(uid);
+    }
+
+    /**
+     * @return whether a page of remote entries is being applied, i.e. {@link #onPageApplied()} will be called.
+     */
+    protected boolean isApplyingPage() {
+        return pageDeletes != null;
+    }
+
+    /**
+     * Called after a page of remote entries has been applied, so writes queued while applying it can be done at once.
+     */
+    protected void onPageApplied() throws CalendarStorageException, ContactsStorageException {
+    }
+
+    /**
+     * A local resource whose addition or update is enqueued to a batch shared by the page being applied. It's only
+     * recorded with {@link #onLocalResourceChanged(String, LocalResource, SyncEntry)} once the batch is committed by
+     * {@link #onPageApplied()}, as a new resource doesn't have an id before.
+     */
+    static class QueuedResource<R extends LocalResource> {
+        final String uid;
+        final R local;
+        final SyncEntry cEntry;
+        /**
+         * The index of the resource's operation in the batch, to get its id from.
+         */
+        final int index;
+
+        QueuedResource(String uid, R local, SyncEntry cEntry, int index) {
+            this.uid = uid;
+            this.local = local;
+            this.cEntry = cEntry;
+            this.index = index;
+        }
+    }
+
+    /**
+     * @return the ids of the local resources, by uid, as recorded by the sync. They may be outdated.
+     */
+    protected Map<String, Long> getKnownLocalIds() {
+        return localUids.getIds();
+    }
+
+    private static String contentHash(SyncEntry cEntry) {
+        return Crypto.sha256(cEntry.getContent());
+    }
 
     private JournalEntity getJournalEntity() {
         if (_journalEntity == null)
@@ -298,137 +562,477 @@ abstract public class SyncManager {
     }
 
     private void persistSyncEntry(String uid, SyncEntry syncEntry) {
+        data.insert(createEntryEntity(uid, syncEntry));
+    }
+
+    private EntryEntity createEntryEntity(String uid, SyncEntry syncEntry) {
         EntryEntity entry = new EntryEntity();
         entry.setUid(uid);
         entry.setContent(syncEntry);
         entry.setJournal(getJournalEntity());
-        data.insert(entry);
+        return entry;
     }
 
     protected void applyLocalEntries() throws IOException, ContactsStorageException, CalendarStorageException, Exceptions.HttpException, InvalidCalendarException, InterruptedException {
-        // FIXME: Need a better strategy
         // We re-apply local entries so our changes override whatever was written in the remote.
-        String strTotal = String.valueOf(localEntries.size());
+        applyLocalEntries(0);
+    }
+
+    /**
+     * Applies the local entries from {@code offset} on, as far as remote entries overwrote their resources. The other
+     * resources still have the local changes, so they're left alone.
+     */
+    private void applyLocalEntries(int offset) throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException, InterruptedException {
+        String strTotal = String.valueOf(localEntries.size() - offset);
         int i = 0;
 
-        for (JournalEntryManager.Entry entry : localEntries) {
+        for (int j = offset; j < localEntries.size(); j++) {
             if (Thread.interrupted()) {
                 throw new InterruptedException();
             }
             i++;
-            App.log.info("Processing (" + String.valueOf(i) + "/" + strTotal + ") " + entry.toString());
+            App.log.info("Processing (" + String.valueOf(i) + "/" + strTotal + ") " + localEntries.get(j).toString());
 
-            SyncEntry cEntry = SyncEntry.fromJournalEntry(crypto, entry);
+            SyncEntry cEntry = localSyncEntries.get(j);
             if (cEntry.isAction(SyncEntry.Actions.DELETE)) {
                 continue;
             }
+            String uid = outboxResources.get(j).getUuid();
+            if (!remoteChangedUids.contains(uid)) {
+                App.log.info("Skipping resource for journal entry, no remote entry changed it");
+                continue;
+            }
             App.log.info("Processing resource for journal entry");
             processSyncEntry(cEntry);
         }
+        remoteChangedUids.clear();
     }
 
     protected void queryCapabilities() throws IOException, CalendarStorageException, ContactsStorageException {
     }
 
-    protected void fetchEntries() throws Exceptions.HttpException, ContactsStorageException, CalendarStorageException, Exceptions.IntegrityException {
-        int count = data.count(EntryEntity.class).where(EntryEntity.JOURNAL.eq(getJournalEntity())).get().value();
-        if ((remoteCTag != null) && (count == 0)) {
-            // If we are updating an existing installation with no saved journal, we need to add
-            remoteEntries = journal.list(crypto, null, MAX_FETCH);
-            int i = 0;
-            for (JournalEntryManager.Entry entry : remoteEntries) {
-                SyncEntry cEntry = SyncEntry.fromJournalEntry(crypto, entry);
-                persistSyncEntry(entry.getUid(), cEntry);
-                i++;
-                if (remoteCTag.equals(entry.getUid())) {
-                    remoteEntries.subList(0, i).clear();
-                    break;
-                }
-            }
-        } else {
-            remoteEntries = journal.list(crypto, remoteCTag, MAX_FETCH);
+    protected void fetchEntries() throws Exceptions.HttpException, ContactsStorageException, CalendarStorageException, Exceptions.IntegrityException, IOException, InvalidCalendarException, InterruptedException {
+        if (remotePages == null) {
+            int count = data.count(EntryEntity.class).where(EntryEntity.JOURNAL.eq(getJournalEntity())).get().value();
+            // If we are updating an existing installation with no saved journal, we need to add the entries it has
+            storingAppliedEntries = (remoteCTag != null) && (count == 0);
+            remotePages = journal.pages(crypto, storingAppliedEntries ? null : remoteCTag, fetchSize, PREFETCH_PAGES, decodeListener);
+        }
+        remoteEntries = remotePages.next();
+        if (storingAppliedEntries) {
+            storeAppliedEntries();
         }
 
         App.log.info("Fetched " + String.valueOf(remoteEntries.size()) + " entries");
     }
 
-    protected void applyRemoteEntries() throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException, InterruptedException {
-        // Process new vcards from server
-        String strTotal = String.valueOf(remoteEntries.size());
-        int i = 0;
-
-        for (JournalEntryManager.Entry entry : remoteEntries) {
-            if (Thread.interrupted()) {
-                throw new InterruptedException();
+    /**
+     * Stores the entries of the fetched page up to {@link #remoteCTag}, which the local collection already has, and
+     * leaves only the ones after it to be applied.
+     */
+    private void storeAppliedEntries() throws IOException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        int end = remoteEntries.size();
+        for (int i = 0; i < remoteEntries.size(); i++) {
+            if (remoteCTag.equals(remoteEntries.get(i).getUid())) {
+                end = i + 1;
+                storingAppliedEntries = false;
+                break;
             }
-            i++;
-            App.log.info("Processing (" + String.valueOf(i) + "/" + strTotal + ") " + entry.toString());
+        }
 
-            SyncEntry cEntry = SyncEntry.fromJournalEntry(crypto, entry);
-            App.log.info("Processing resource for journal entry");
-            processSyncEntry(cEntry);
+        // Mostly decoded already by decodeListener, so they aren't decrypted a second time
+        List<JournalEntryManager.Entry> applied = remoteEntries.subList(0, end);
+        List<DecodedEntry<T>> decodedEntries = decodeEntries(applied);
+        List<EntryEntity> entries = new ArrayList<>(decodedEntries.size());
+        for (DecodedEntry<T> decoded : decodedEntries) {
+            entries.add(createEntryEntity(decoded.entry.getUid(), decoded.syncEntry));
+        }
+        if (!entries.isEmpty()) {
+            data.insert(entries);
+        }
+        applied.clear();
+    }
 
-            persistSyncEntry(entry.getUid(), cEntry);
+    protected void applyRemoteEntries() throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        // Process new vcards from server
+        List<DecodedEntry<T>> decodedEntries = decodeEntries(remoteEntries);
+        // Let the page go as soon as it's applied, rather than while the next one is waited for
+        remoteEntries = null;
+        applyDecodedEntries(decodedEntries);
+
+        // Only recorded as applied once the whole page is, as the last applied entry is where the next sync continues
+        List<EntryEntity> entries = new ArrayList<>(decodedEntries.size());
+        for (DecodedEntry<T> decoded : decodedEntries) {
+            entries.add(createEntryEntity(decoded.entry.getUid(), decoded.syncEntry));
+            countRemoteEntry(decoded.syncEntry);
+        }
+        if (!entries.isEmpty()) {
+            data.insert(entries);
+        }
+        localUids.save();
+        if (!decodedEntries.isEmpty()) {
+            remoteCTag = decodedEntries.get(decodedEntries.size() - 1).entry.getUid();
+        }
+    }
 
-            remoteCTag = entry.getUid();
+    private void countRemoteEntry(SyncEntry cEntry) {
+        switch (cEntry.getAction()) {
+            case ADD:
+                remoteAdded++;
+                break;
+            case DELETE:
+                remoteDeleted++;
+                break;
+            case CHANGE:
+                remoteChanged++;
+                break;
         }
     }
 
-    protected void pushEntries() throws Exceptions.HttpException, IOException, ContactsStorageException, CalendarStorageException {
-        // upload dirty contacts
-        int pushed = 0;
-        // FIXME: Deal with failure (someone else uploaded before we go here)
+    /**
+     * Applies a page of decoded entries to the local collection.
+     */
+    private void applyDecodedEntries(List<DecodedEntry<T>> decodedEntries) throws IOException, ContactsStorageException, CalendarStorageException, InterruptedException {
+        String strTotal = String.valueOf(decodedEntries.size());
+        int i = 0;
+
+        // Only the last entry of each uid in the page is applied, as it overwrites whatever the ones before it did
+        Map<String, DecodedEntry<T>> lastEntries = new HashMap<>();
+        for (DecodedEntry<T> decoded : decodedEntries) {
+            if (decoded.resource != null) {
+                lastEntries.put(resourceUid(decoded.resource), decoded);
+            }
+        }
+
+        // Look up all the page's local resources at once, and delete them at once at the end of the page
+        Set<String> uids = lastEntries.keySet();
+        pageResources = localCollection.getByIds(localUids.getIds(uids));
+        Set<String> unknownUids = new HashSet<>(uids);
+        unknownUids.removeAll(pageResources.keySet());
+        if (!unknownUids.isEmpty()) {
+            pageResources.putAll(localCollection.getByUids(unknownUids));
+        }
+        pageDeletes = new ArrayList<>();
+
         try {
-            if (!localEntries.isEmpty()) {
-                for (List<JournalEntryManager.Entry> entries : ListUtils.partition(localEntries, MAX_PUSH)) {
-                    journal.create(entries, remoteCTag);
-                    // Persist the entries after they've been pushed
-                    for (JournalEntryManager.Entry entry : entries) {
-                        SyncEntry cEntry = SyncEntry.fromJournalEntry(crypto, entry);
-                        persistSyncEntry(entry.getUid(), cEntry);
-                    }
-                    remoteCTag = entries.get(entries.size() - 1).getUid();
-                    pushed += entries.size();
+            for (DecodedEntry<T> decoded : decodedEntries) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                i++;
+                App.log.info("Processing (" + String.valueOf(i) + "/" + strTotal + ") " + decoded.entry.toString());
+
+                if ((decoded.resource != null) && (lastEntries.get(resourceUid(decoded.resource)) != decoded)) {
+                    App.log.info("Skipping resource for journal entry, it's changed again later in the page");
+                } else {
+                    App.log.info("Processing resource for journal entry");
+                    processSyncEntry(decoded.syncEntry, decoded.resource);
                 }
             }
+
+            if (!pageDeletes.isEmpty()) {
+                App.log.info("Removing " + pageDeletes.size() + " local records which have been deleted on the server");
+                localCollection.deleteAll(pageDeletes);
+            }
+            onPageApplied();
         } finally {
-            // FIXME: A bit fragile, we assume the order in createLocalEntries
-            for (LocalResource local : localDeleted) {
-                if (pushed-- <= 0) {
-                    break;
+            pageResources = null;
+            pageDeletes = null;
+        }
+    }
+
+    /**
+     * Whether the local collection has to be rebuilt from the stored journal: it's empty and doesn't know which entry
+     * it's at, i.e. it was (re)created after the journal was stored, e.g. because the provider's data was cleared. Or
+     * a previous rebuild didn't finish.
+     */
+    private boolean needsRebuild() throws CalendarStorageException, ContactsStorageException {
+        if (remoteCTag == null) {
+            return false;
+        }
+        String localCTag = localCollection.getCTag();
+        return CTAG_REBUILDING.equals(localCTag) || ((localCTag == null) && (localCollection.count() == 0));
+    }
+
+    /**
+     * Writes the journal as stored in the database to the local collection, instead of downloading and decrypting it
+     * again. Only the final state of every resource is written.
+     */
+    private void rebuildFromStoredJournal() throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        App.log.info("Rebuilding local collection from the stored journal");
+        localUids.clear();
+
+        // Parse the journal once, keeping the last entry of each uid (by row id, i.e. in journal order), as only those
+        // have to be applied
+        Map<String, Integer> lastIds = new HashMap<>();
+        TreeMap<Integer, DecodedEntry<T>> lastEntries = new TreeMap<>();
+        List<EntryEntity> rows;
+        int lastId = 0;
+        while (!(rows = getStoredEntries(lastId)).isEmpty()) {
+            List<DecodedEntry<T>> decodedEntries = parseStoredEntries(rows);
+            for (int i = 0; i < rows.size(); i++) {
+                DecodedEntry<T> decoded = decodedEntries.get(i);
+                if (decoded.resource == null) {
+                    continue;
+                }
+                Integer previousId = lastIds.remove(resourceUid(decoded.resource));
+                if (previousId != null) {
+                    lastEntries.remove(previousId);
+                }
+                if (!decoded.syncEntry.isAction(SyncEntry.Actions.DELETE)) {
+                    int id = rows.get(i).getId();
+                    lastIds.put(resourceUid(decoded.resource), id);
+                    lastEntries.put(id, decoded);
                 }
-                local.delete();
             }
+            lastId = rows.get(rows.size() - 1).getId();
+        }
 
-            for (LocalResource local : localDirty) {
-                if (pushed-- <= 0) {
-                    break;
-                }
-                App.log.info("Added/changed resource with UUID: " + local.getUuid());
-                local.clearDirty(local.getUuid());
+        List<DecodedEntry<T>> finalEntries = new ArrayList<>(lastEntries.values());
+        int applied = 0;
+        while (applied < finalEntries.size()) {
+            int end = Math.min(applied + MAX_FETCH_UPPER, finalEntries.size());
+            applyDecodedEntries(completeStoredEntries(finalEntries.subList(applied, end)));
+            localUids.save();
+            // Let the applied resources be garbage collected
+            Collections.fill(finalEntries.subList(applied, end), null);
+            applied = end;
+        }
+
+        App.log.info("Rebuilt " + applied + " resources from the stored journal");
+    }
+
+    /**
+     * @return the next stored entries of the journal after the given row id, in journal order.
+     */
+    private List<EntryEntity> getStoredEntries(int afterId) {
+        return data.select(EntryEntity.class)
+                .where(EntryEntity.JOURNAL.eq(getJournalEntity()).and(EntryEntity.ID.gt(afterId)))
+                .orderBy(EntryEntity.ID.asc())
+                .limit(MAX_FETCH_UPPER)
+                .get().toList();
+    }
+
+    /**
+     * Decrypts and parses the given entries on the decode worker pool. Entries passed to {@link #decodeListener}
+     * while their page was downloading are usually decoded already.
+     *
+     * @return the decoded entries, in the same order as the given ones.
+     */
+    private List<DecodedEntry<T>> decodeEntries(List<JournalEntryManager.Entry> entries) throws IOException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        List<Future<DecodedEntry<T>>> futures = new ArrayList<>(entries.size());
+        for (JournalEntryManager.Entry entry : entries) {
+            Future<DecodedEntry<T>> future = pendingDecodes.remove(entry);
+            futures.add((future != null) ? future : submitDecoder(entry));
+        }
+        return awaitDecoders(futures);
+    }
+
+    private Future<DecodedEntry<T>> submitDecoder(final JournalEntryManager.Entry entry) {
+        return decodeExecutor.submit(new Callable<DecodedEntry<T>>() {
+            @Override
+            public DecodedEntry<T> call() throws Exception {
+                SyncEntry cEntry = SyncEntry.fromJournalEntry(crypto, entry);
+                return new DecodedEntry<>(entry, cEntry, parseSyncEntry(cEntry));
             }
+        });
+    }
+
+    /**
+     * Cancels the decoding started by {@link #decodeListener} for entries which won't be applied.
+     */
+    private void discardDecoders(List<JournalEntryManager.Entry> entries) {
+        for (JournalEntryManager.Entry entry : entries) {
+            Future<DecodedEntry<T>> future = pendingDecodes.remove(entry);
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #decodeEntries(List)}, for entries stored in the database, which are already decrypted.
+     */
+    private List<DecodedEntry<T>> parseStoredEntries(List<EntryEntity> rows) throws IOException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        List<Callable<DecodedEntry<T>>> decoders = new ArrayList<>(rows.size());
+        for (final EntryEntity row : rows) {
+            decoders.add(new Callable<DecodedEntry<T>>() {
+                @Override
+                public DecodedEntry<T> call() throws Exception {
+                    SyncEntry cEntry = row.getContent();
+                    return new DecodedEntry<>(JournalEntryManager.Entry.getFakeWithUid(row.getUid()), cEntry, parseStoredSyncEntry(cEntry));
+                }
+            });
+        }
+        return runDecoders(decoders);
+    }
+
+    /**
+     * Completes the resources of entries parsed by {@link #parseStoredEntries(List)}, see
+     * {@link #completeStoredResource(SyncEntry, Object)}.
+     */
+    private List<DecodedEntry<T>> completeStoredEntries(List<DecodedEntry<T>> decodedEntries) throws IOException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        List<Callable<DecodedEntry<T>>> decoders = new ArrayList<>(decodedEntries.size());
+        for (final DecodedEntry<T> decoded : decodedEntries) {
+            decoders.add(new Callable<DecodedEntry<T>>() {
+                @Override
+                public DecodedEntry<T> call() throws Exception {
+                    return new DecodedEntry<>(decoded.entry, decoded.syncEntry, completeStoredResource(decoded.syncEntry, decoded.resource));
+                }
+            });
+        }
+        return runDecoders(decoders);
+    }
 
-            if (pushed > 0) {
-                App.log.severe("Unprocessed localentries left, this should never happen!");
+    private List<DecodedEntry<T>> runDecoders(List<Callable<DecodedEntry<T>>> decoders) throws IOException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        List<Future<DecodedEntry<T>>> futures = new ArrayList<>(decoders.size());
+        for (Callable<DecodedEntry<T>> decoder : decoders) {
+            futures.add(decodeExecutor.submit(decoder));
+        }
+        return awaitDecoders(futures);
+    }
+
+    private List<DecodedEntry<T>> awaitDecoders(List<Future<DecodedEntry<T>>> futures) throws IOException, InvalidCalendarException, Exceptions.IntegrityException, InterruptedException {
+        List<DecodedEntry<T>> ret = new ArrayList<>(futures.size());
+        try {
+            for (Future<DecodedEntry<T>> future : futures) {
+                ret.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidCalendarException) {
+                throw (InvalidCalendarException) cause;
+            } else if (cause instanceof Exceptions.IntegrityException) {
+                throw (Exceptions.IntegrityException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            // Don't leave work behind if we bailed out early
+            for (Future<DecodedEntry<T>> future : futures) {
+                future.cancel(true);
             }
+        }
+
+        return ret;
+    }
+
+    private static class DecodedEntry<R> {
+        final JournalEntryManager.Entry entry;
+        final SyncEntry syncEntry;
+        final R resource;
+
+        DecodedEntry(JournalEntryManager.Entry entry, SyncEntry syncEntry, R resource) {
+            this.entry = entry;
+            this.syncEntry = syncEntry;
+            this.resource = resource;
+        }
+    }
 
+    protected void pushEntries() throws Exceptions.HttpException, Exceptions.IntegrityException, IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException, InterruptedException {
+        // upload dirty contacts
+        try {
+            remoteCTag = journal.push(crypto, localEntries, remoteCTag, pushSize, MAX_PUSH_REBASES, new JournalEntryManager.PushListener<Exception>() {
+                @Override
+                public String catchUp(String last) throws Exception {
+                    fetchMissedEntries();
+                    return remoteCTag;
+                }
+
+                @Override
+                public void onRebased(int offset) throws Exception {
+                    rebaseLocalEntries(offset);
+                }
+
+                @Override
+                public void onPushed(int offset, int end) throws Exception {
+                    completePushedEntries(offset, end);
+                }
+            });
+        } catch (Exceptions.HttpException | Exceptions.IntegrityException | IOException | ContactsStorageException | CalendarStorageException | InvalidCalendarException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
             localDirty = null;
             localDeleted = null;
         }
     }
 
+    /**
+     * Persists the pushed entries from {@code offset} to {@code end}, and only then takes them out of the outbox.
+     */
+    private void completePushedEntries(int offset, int end) throws ContactsStorageException, CalendarStorageException {
+        for (int i = offset; i < end; i++) {
+            persistSyncEntry(localEntries.get(i).getUid(), localSyncEntries.get(i));
+            completeOutboxEntry(outbox.get(i), outboxResources.get(i));
+        }
+        remoteCTag = localEntries.get(end - 1).getUid();
+    }
+
+    /**
+     * Fetches and applies the remote entries that were pushed since our last fetch.
+     */
+    private void fetchMissedEntries() throws Exceptions.HttpException, Exceptions.IntegrityException, IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException, InterruptedException {
+        boolean more;
+        do {
+            int size = fetchSize.getSize();
+            long maxBytes = fetchSize.getTargetBytes();
+            remoteEntries = journal.list(crypto, remoteCTag, size, maxBytes, decodeListener);
+            App.log.info("Fetched " + String.valueOf(remoteEntries.size()) + " entries");
+
+            // A page that was cut off short isn't necessarily the last one
+            long bytes = 0;
+            for (JournalEntryManager.Entry entry : remoteEntries) {
+                bytes += entry.getEncryptedContent().length;
+            }
+            more = (remoteEntries.size() >= size) || (bytes >= maxBytes);
+
+            applyRemoteEntries();
+        } while (more);
+    }
+
+    /**
+     * Records the new uids of the local entries from {@code offset} on, which were chained onto the remote entries
+     * that came in with {@link #fetchMissedEntries()}, and applies them again so they still override those.
+     */
+    private void rebaseLocalEntries(int offset) throws IOException, ContactsStorageException, CalendarStorageException, InvalidCalendarException, InterruptedException {
+        for (int i = offset; i < localEntries.size(); i++) {
+            OutboxEntity row = outbox.get(i);
+            row.setUid(localEntries.get(i).getUid());
+            data.update(row);
+        }
+
+        applyLocalEntries(offset);
+    }
+
     protected void createLocalEntries() throws CalendarStorageException, ContactsStorageException, IOException {
-        localEntries = new LinkedList<>();
+        localEntries = new ArrayList<>();
+        localSyncEntries = new ArrayList<>();
+        outbox = new ArrayList<>();
+        outboxResources = new ArrayList<>();
+
+        // Entries created by previous syncs which didn't get to push them, by resource uid
+        Map<String, OutboxEntity> pending = new HashMap<>();
+        for (OutboxEntity row : data.select(OutboxEntity.class).where(OutboxEntity.JOURNAL.eq(getJournalEntity())).get()) {
+            if (row.getLocalUid() != null) {
+                pending.put(row.getLocalUid(), row);
+            } else {
+                App.log.info("Dropping outbox entry " + row.getUid() + " of an unknown resource");
+                data.delete(row);
+            }
+        }
 
         // Not saving, just creating a fake one until we load it from a local db
         JournalEntryManager.Entry previousEntry = (remoteCTag != null) ? JournalEntryManager.Entry.getFakeWithUid(remoteCTag) : null;
 
         for (LocalResource local : localDeleted) {
-            SyncEntry entry = new SyncEntry(local.getContent(), SyncEntry.Actions.DELETE);
-            JournalEntryManager.Entry tmp = new JournalEntryManager.Entry();
-            tmp.update(crypto, entry.toJson(), previousEntry);
-            previousEntry = tmp;
-            localEntries.add(previousEntry);
+            previousEntry = addToOutbox(local, SyncEntry.Actions.DELETE, pending, previousEntry);
         }
 
         for (LocalResource local : localDirty) {
@@ -439,18 +1043,91 @@ abstract public class SyncManager {
                 action = SyncEntry.Actions.CHANGE;
             }
 
-            SyncEntry entry = new SyncEntry(local.getContent(), action);
-            JournalEntryManager.Entry tmp = new JournalEntryManager.Entry();
-            tmp.update(crypto, entry.toJson(), previousEntry);
-            previousEntry = tmp;
-            localEntries.add(previousEntry);
+            previousEntry = addToOutbox(local, action, pending, previousEntry);
+        }
+
+        // The rest are of resources which aren't dirty anymore, e.g. because a remote change overwrote them
+        for (OutboxEntity row : pending.values()) {
+            App.log.info("Dropping stale outbox entry " + row.getUid());
+            data.delete(row);
+        }
+    }
+
+    /**
+     * Adds a journal entry for the local change, chained to {@code previousEntry}, to the outbox. An outbox entry
+     * left by a previous sync for the same content is reused, only chaining it again if remote entries came in since.
+     * If it turns out to have been pushed already (we got it back from the server), it's just completed.
+     *
+     * @return the new last entry of the chain.
+     */
+    private JournalEntryManager.Entry addToOutbox(LocalResource local, SyncEntry.Actions action, Map<String, OutboxEntity> pending,
+                                                  JournalEntryManager.Entry previousEntry) throws CalendarStorageException, ContactsStorageException, IOException {
+        SyncEntry syncEntry = new SyncEntry(local.getContent(), action);
+        String content = syncEntry.toJson();
+        String contentHash = Crypto.sha256(content);
+
+        OutboxEntity row = pending.remove(local.getUuid());
+        JournalEntryManager.Entry entry;
+        if ((row != null) && (row.getAction() == action) && contentHash.equals(row.getContentHash())) {
+            if (isPersisted(row.getUid())) {
+                App.log.info("Outbox entry " + row.getUid() + " was already pushed");
+                completeOutboxEntry(row, local);
+                return previousEntry;
+            }
+
+            entry = JournalEntryManager.Entry.fromEncrypted(row.getUid(), row.getContent());
+            entry.rechain(crypto, previousEntry);
+            if (!entry.getUid().equals(row.getUid())) {
+                row.setUid(entry.getUid());
+                data.update(row);
+            }
+        } else {
+            entry = new JournalEntryManager.Entry();
+            entry.update(crypto, content, previousEntry);
+
+            if (row == null) {
+                row = new OutboxEntity();
+                row.setJournal(getJournalEntity());
+                row.setLocalUid(local.getUuid());
+            }
+            row.setUid(entry.getUid());
+            row.setContent(entry.getEncryptedContent());
+            row.setContentHash(contentHash);
+            row.setAction(action);
+            data.upsert(row);
+        }
+
+        localEntries.add(entry);
+        localSyncEntries.add(syncEntry);
+        outbox.add(row);
+        outboxResources.add(local);
+        return entry;
+    }
+
+    private boolean isPersisted(String uid) {
+        return data.count(EntryEntity.class).where(EntryEntity.JOURNAL.eq(getJournalEntity()).and(EntryEntity.UID.eq(uid))).get().value() > 0;
+    }
+
+    /**
+     * Applies a pushed outbox entry to its local resource and removes it from the outbox.
+     */
+    private void completeOutboxEntry(OutboxEntity row, LocalResource local) throws CalendarStorageException, ContactsStorageException {
+        if (row.getAction() == SyncEntry.Actions.DELETE) {
+            local.delete();
+            localUids.remove(local.getUuid());
+        } else {
+            App.log.info("Added/changed resource with UUID: " + local.getUuid());
+            local.clearDirty(local.getUuid());
+            localUids.put(local.getUuid(), local, null);
         }
+        data.delete(row);
     }
 
     /**
      */
     protected void prepareLocal() throws CalendarStorageException, ContactsStorageException, FileNotFoundException {
         remoteCTag = getJournalEntity().getLastUid(data);
+        localUids = new LocalUidMap(data, getJournalEntity());
 
         localDeleted = processLocallyDeleted();
         localDirty = localCollection.getDirty();
@@ -497,5 +1174,7 @@ abstract public class SyncManager {
      * For post-processing of entries, for instance assigning groups.
      */
     protected void postProcess() throws CalendarStorageException, ContactsStorageException {
+        localUids.save();
+        localCollection.setCTag(remoteCTag);
     }
 }
@@ -19,9 +19,12 @@ import android.support.v7.preference.PreferenceFragmentCompat;
 import android.support.v7.preference.SwitchPreferenceCompat;
 
 import com.etesync.syncadapter.App;
+import com.etesync.syncadapter.HttpClient;
 import com.etesync.syncadapter.R;
+import com.etesync.syncadapter.journalmanager.CryptoBackend;
 import com.etesync.syncadapter.model.ServiceDB;
 import com.etesync.syncadapter.model.Settings;
+import com.etesync.syncadapter.syncadapter.CollectionSyncScheduler;
 import com.etesync.syncadapter.utils.HintManager;
 import com.etesync.syncadapter.utils.LanguageUtils;
 
@@ -85,6 +88,7 @@ public class AppSettingsActivity extends BaseActivity {
                 @Override
                 public boolean onPreferenceChange(Preference preference, Object newValue) {
                     settings.putBoolean(App.OVERRIDE_PROXY, (boolean)newValue);
+                    httpSettingsChanged();
                     return true;
                 }
             });
@@ -105,6 +109,7 @@ public class AppSettingsActivity extends BaseActivity {
                     }
                     settings.putString(App.OVERRIDE_PROXY_HOST, host);
                     prefProxyHost.setSummary(host);
+                    httpSettingsChanged();
                     return true;
                 }
             });
@@ -125,6 +130,38 @@ public class AppSettingsActivity extends BaseActivity {
                     settings.putInt(App.OVERRIDE_PROXY_PORT, port);
                     prefProxyPort.setText(String.valueOf(port));
                     prefProxyPort.setSummary(String.valueOf(port));
+                    httpSettingsChanged();
+                    return true;
+                }
+            });
+
+            SwitchPreferenceCompat prefCompressRequests = (SwitchPreferenceCompat) findPreference("compress_requests");
+            prefCompressRequests.setChecked(settings.getBoolean(App.COMPRESS_REQUESTS, false));
+            prefCompressRequests.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    settings.putBoolean(App.COMPRESS_REQUESTS, (boolean) newValue);
+                    httpSettingsChanged();
+                    return true;
+                }
+            });
+
+            final EditTextPreference prefSyncParallelism = (EditTextPreference) findPreference("sync_parallelism");
+            int syncParallelism = settings.getInt(App.SYNC_PARALLELISM, 0);
+            prefSyncParallelism.setText(String.valueOf(syncParallelism));
+            prefSyncParallelism.setSummary(syncParallelismSummary(syncParallelism));
+            prefSyncParallelism.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    int parallelism;
+                    try {
+                        parallelism = Math.max(0, Integer.parseInt((String) newValue));
+                    } catch (NumberFormatException e) {
+                        parallelism = 0;
+                    }
+                    settings.putInt(App.SYNC_PARALLELISM, parallelism);
+                    prefSyncParallelism.setText(String.valueOf(parallelism));
+                    prefSyncParallelism.setSummary(syncParallelismSummary(parallelism));
                     return true;
                 }
             });
@@ -137,6 +174,17 @@ public class AppSettingsActivity extends BaseActivity {
             prefLogToExternalStorage = (SwitchPreferenceCompat) findPreference("log_to_external_storage");
             prefLogToExternalStorage.setChecked(settings.getBoolean(App.LOG_TO_EXTERNAL_STORAGE, false));
 
+            ListPreference prefCryptoBackend = (ListPreference) findPreference("crypto_backend");
+            prefCryptoBackend.setValue(settings.getString(App.CRYPTO_BACKEND, CryptoBackend.AUTO));
+            prefCryptoBackend.setSummary(prefCryptoBackend.getEntry());
+            prefCryptoBackend.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    setCryptoBackend((ListPreference) preference, (String) newValue);
+                    return true;
+                }
+            });
+
             initSelectLanguageList();
         }
 
@@ -165,12 +213,28 @@ public class AppSettingsActivity extends BaseActivity {
             Snackbar.make(getView(), R.string.app_settings_reset_hints_success, Snackbar.LENGTH_LONG).show();
         }
 
+        private String syncParallelismSummary(int parallelism) {
+            if (parallelism > 0) {
+                return String.valueOf(parallelism);
+            }
+            return getString(R.string.app_settings_sync_parallelism_automatic, CollectionSyncScheduler.getParallelism(getContext()));
+        }
+
+        private void httpSettingsChanged() {
+            // rebuild HTTP clients of default process
+            HttpClient.reinit();
+
+            // rebuild HTTP clients of :sync process
+            getContext().sendBroadcast(new Intent(App.ReinitSettingsReceiver.ACTION_REINIT_SETTINGS));
+        }
+
         private void setDistrustSystemCerts(boolean distrust) {
             settings.putBoolean(App.DISTRUST_SYSTEM_CERTIFICATES, distrust);
 
             // re-initialize certificate manager
             App app = (App)getContext().getApplicationContext();
             app.reinitCertManager();
+            HttpClient.reinit();
 
             // reinitialize certificate manager of :sync process
             getContext().sendBroadcast(new Intent(App.ReinitSettingsReceiver.ACTION_REINIT_SETTINGS));
@@ -192,6 +256,18 @@ public class AppSettingsActivity extends BaseActivity {
             getContext().sendBroadcast(new Intent(App.ReinitSettingsReceiver.ACTION_REINIT_SETTINGS));
         }
 
+        private void setCryptoBackend(ListPreference preference, String backend) {
+            settings.putString(App.CRYPTO_BACKEND, backend);
+            preference.setSummary(preference.getEntries()[preference.findIndexOfValue(backend)]);
+
+            // reinitialize crypto backend of default process
+            App app = (App) getContext().getApplicationContext();
+            app.reinitCryptoBackend();
+
+            // reinitialize crypto backend of :sync process
+            getContext().sendBroadcast(new Intent(App.ReinitSettingsReceiver.ACTION_REINIT_SETTINGS));
+        }
+
         private class LanguageTask extends AsyncTask<Void, Void, LanguageUtils.LocaleList> {
             private ListPreference mListPreference;
 
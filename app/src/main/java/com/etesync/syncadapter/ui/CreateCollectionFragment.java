@@ -27,6 +27,7 @@ import com.etesync.syncadapter.AccountSettings;
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.HttpClient;
 import com.etesync.syncadapter.InvalidAccountException;
+import com.etesync.syncadapter.JournalListCache;
 import com.etesync.syncadapter.R;
 import com.etesync.syncadapter.journalmanager.Crypto;
 import com.etesync.syncadapter.journalmanager.Exceptions;
@@ -153,6 +154,7 @@ public class CreateCollectionFragment extends DialogFragment implements LoaderMa
                     JournalManager.Journal journal = new JournalManager.Journal(crypto, info.toJson(), info.uid);
                     journalManager.update(journal);
                 }
+                JournalListCache.invalidate(getContext(), account.name);
 
                 // 2. add collection to service
                 info.serviceID = serviceEntity.getId();
@@ -34,6 +34,7 @@ import android.widget.TextView;
 import com.etesync.syncadapter.AccountSettings;
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.BuildConfig;
+import com.etesync.syncadapter.HttpMetrics;
 import com.etesync.syncadapter.InvalidAccountException;
 import com.etesync.syncadapter.R;
 import com.etesync.syncadapter.journalmanager.Exceptions.HttpException;
@@ -65,7 +66,8 @@ public class DebugInfoActivity extends BaseActivity implements LoaderManager.Loa
             KEY_THROWABLE = "throwable",
             KEY_LOGS = "logs",
             KEY_AUTHORITY = "authority",
-            KEY_PHASE = "phase";
+            KEY_PHASE = "phase",
+            KEY_HTTP_METRICS = "httpMetrics";
 
     TextView tvReport;
     String report;
@@ -168,7 +170,8 @@ public class DebugInfoActivity extends BaseActivity implements LoaderManager.Loa
         public String loadInBackground() {
             Throwable throwable = null;
             String  logs = null,
-                    authority = null;
+                    authority = null,
+                    httpMetrics = null;
             Account account = null;
             String phase = null;
 
@@ -178,6 +181,7 @@ public class DebugInfoActivity extends BaseActivity implements LoaderManager.Loa
                 account = extras.getParcelable(KEY_ACCOUNT);
                 authority = extras.getString(KEY_AUTHORITY);
                 phase = extras.getString(KEY_PHASE, null);
+                httpMetrics = extras.getString(KEY_HTTP_METRICS);
             }
 
             StringBuilder report = new StringBuilder("--- BEGIN DEBUG INFO ---\n");
@@ -206,6 +210,13 @@ public class DebugInfoActivity extends BaseActivity implements LoaderManager.Loa
             if (logs != null)
                 report.append("\nLOGS:\n").append(logs).append("\n");
 
+            // the sync adapters run in their own process, so their requests are only known from the intent
+            if (!TextUtils.isEmpty(httpMetrics))
+                report.append("\nHTTP METRICS (SYNC):\n").append(httpMetrics);
+            String localHttpMetrics = HttpMetrics.report();
+            if (!localHttpMetrics.isEmpty())
+                report.append("\nHTTP METRICS:\n").append(localHttpMetrics);
+
             final Context context = getContext();
 
             try {
@@ -27,6 +27,7 @@ import com.etesync.syncadapter.AccountSettings;
 import com.etesync.syncadapter.App;
 import com.etesync.syncadapter.HttpClient;
 import com.etesync.syncadapter.InvalidAccountException;
+import com.etesync.syncadapter.JournalListCache;
 import com.etesync.syncadapter.R;
 import com.etesync.syncadapter.journalmanager.Crypto;
 import com.etesync.syncadapter.journalmanager.Exceptions;
@@ -123,6 +124,7 @@ public class DeleteCollectionFragment extends DialogFragment implements LoaderMa
                 Crypto.CryptoManager crypto = new Crypto.CryptoManager(collectionInfo.version, settings.password(), collectionInfo.uid);
 
                 journalManager.delete(new JournalManager.Journal(crypto, collectionInfo.toJson(), collectionInfo.uid));
+                JournalListCache.invalidate(getContext(), account.name);
                 JournalEntity journalEntity = JournalEntity.fetch(data, collectionInfo.getServiceEntity(data), collectionInfo.uid);
                 journalEntity.setDeleted(true);
                 data.update(journalEntity);
@@ -0,0 +1,374 @@
+package com.etesync.syncadapter.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A table driven base64 codec for the standard alphabet with padding and no line wrapping, the same format as
+ * {@link Base64#NO_WRAP}. Unlike {@link Base64} it can encode and decode into caller provided arrays and buffers,
+ * and decode incrementally with a {@link Decoder}.
+ * <p>
+ * Like {@link Base64}, decoding ignores whitespace, accepts missing padding and throws an
+ * {@link IllegalArgumentException} on bad input.
+ */
+public final class Base64Codec {
+    private static final char[] ENCODE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte[] ENCODE_BYTES = new byte[ENCODE.length];
+
+    private static final int SKIP = -1;
+    private static final int PAD = -2;
+    private static final int INVALID = -3;
+    private static final int[] DECODE = new int[128];
+
+    static {
+        Arrays.fill(DECODE, INVALID);
+        for (int i = 0; i < ENCODE.length; i++) {
+            ENCODE_BYTES[i] = (byte) ENCODE[i];
+            DECODE[ENCODE[i]] = i;
+        }
+        DECODE['='] = PAD;
+        DECODE[' '] = SKIP;
+        DECODE['\t'] = SKIP;
+        DECODE['\n'] = SKIP;
+        DECODE['\r'] = SKIP;
+    }
+
+    private Base64Codec() {
+    }
+
+    public static int encodedLength(int length) {
+        return ((length + 2) / 3) * 4;
+    }
+
+    /**
+     * The decoded size of {@code length} characters of base64 with {@code padding} trailing '='. This is exact unless
+     * the input contains whitespace, in which case it's an upper bound.
+     */
+    public static int decodedLength(int length, int padding) {
+        return (int) (((long) (length - padding) * 3) / 4);
+    }
+
+    public static String encodeToString(byte[] in) {
+        return encodeToString(in, 0, in.length);
+    }
+
+    public static String encodeToString(byte[] in, int offset, int length) {
+        char[] out = new char[encodedLength(length)];
+        encode(in, offset, length, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * @return the number of characters written to {@code out}.
+     */
+    public static int encode(byte[] in, int offset, int length, char[] out, int outOffset) {
+        int end = offset + length - (length % 3);
+        int o = outOffset;
+        int i = offset;
+        for (; i < end; i += 3) {
+            int v = ((in[i] & 0xff) << 16) | ((in[i + 1] & 0xff) << 8) | (in[i + 2] & 0xff);
+            out[o++] = ENCODE[v >>> 18];
+            out[o++] = ENCODE[(v >>> 12) & 0x3f];
+            out[o++] = ENCODE[(v >>> 6) & 0x3f];
+            out[o++] = ENCODE[v & 0x3f];
+        }
+
+        switch (length % 3) {
+            case 1: {
+                int v = (in[i] & 0xff) << 16;
+                out[o++] = ENCODE[v >>> 18];
+                out[o++] = ENCODE[(v >>> 12) & 0x3f];
+                out[o++] = '=';
+                out[o++] = '=';
+                break;
+            }
+            case 2: {
+                int v = ((in[i] & 0xff) << 16) | ((in[i + 1] & 0xff) << 8);
+                out[o++] = ENCODE[v >>> 18];
+                out[o++] = ENCODE[(v >>> 12) & 0x3f];
+                out[o++] = ENCODE[(v >>> 6) & 0x3f];
+                out[o++] = '=';
+                break;
+            }
+        }
+
+        return o - outOffset;
+    }
+
+    /**
+     * Same as {@link #encode(byte[], int, int, char[], int)} but writes ASCII bytes.
+     */
+    public static int encode(byte[] in, int offset, int length, byte[] out, int outOffset) {
+        int end = offset + length - (length % 3);
+        int o = outOffset;
+        int i = offset;
+        for (; i < end; i += 3) {
+            int v = ((in[i] & 0xff) << 16) | ((in[i + 1] & 0xff) << 8) | (in[i + 2] & 0xff);
+            out[o++] = ENCODE_BYTES[v >>> 18];
+            out[o++] = ENCODE_BYTES[(v >>> 12) & 0x3f];
+            out[o++] = ENCODE_BYTES[(v >>> 6) & 0x3f];
+            out[o++] = ENCODE_BYTES[v & 0x3f];
+        }
+
+        switch (length % 3) {
+            case 1: {
+                int v = (in[i] & 0xff) << 16;
+                out[o++] = ENCODE_BYTES[v >>> 18];
+                out[o++] = ENCODE_BYTES[(v >>> 12) & 0x3f];
+                out[o++] = '=';
+                out[o++] = '=';
+                break;
+            }
+            case 2: {
+                int v = ((in[i] & 0xff) << 16) | ((in[i + 1] & 0xff) << 8);
+                out[o++] = ENCODE_BYTES[v >>> 18];
+                out[o++] = ENCODE_BYTES[(v >>> 12) & 0x3f];
+                out[o++] = ENCODE_BYTES[(v >>> 6) & 0x3f];
+                out[o++] = '=';
+                break;
+            }
+        }
+
+        return o - outOffset;
+    }
+
+    /**
+     * Encodes the remaining bytes of {@code in} as ASCII into {@code out}, advancing both positions.
+     */
+    public static int encode(ByteBuffer in, ByteBuffer out) {
+        int length = in.remaining();
+        int outLength = encodedLength(length);
+        if (out.remaining() < outLength) {
+            throw new IndexOutOfBoundsException("Output buffer too small");
+        }
+
+        if (in.hasArray() && out.hasArray()) {
+            encode(in.array(), in.arrayOffset() + in.position(), length,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.position() + length);
+            out.position(out.position() + outLength);
+        } else {
+            byte[] inBuf = new byte[length];
+            byte[] outBuf = new byte[outLength];
+            in.get(inBuf);
+            encode(inBuf, 0, length, outBuf, 0);
+            out.put(outBuf);
+        }
+
+        return outLength;
+    }
+
+    public static byte[] decode(String in) {
+        return decode(in, 0, in.length());
+    }
+
+    public static byte[] decode(CharSequence in, int offset, int length) {
+        Decoder decoder = new Decoder(decodedLength(length, countPadding(in, offset, length)));
+        decoder.update(in, offset, length);
+        return decoder.toByteArray();
+    }
+
+    /**
+     * @return the number of bytes written to {@code out}.
+     */
+    public static int decode(CharSequence in, int offset, int length, byte[] out, int outOffset) {
+        Decoder decoder = new Decoder(out, outOffset);
+        decoder.update(in, offset, length);
+        return decoder.finish();
+    }
+
+    /**
+     * Decodes into {@code out}, advancing its position.
+     */
+    public static int decode(CharSequence in, ByteBuffer out) {
+        int ret;
+        if (out.hasArray()) {
+            ret = decode(in, 0, in.length(), out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + ret);
+        } else {
+            byte[] buf = decode(in, 0, in.length());
+            out.put(buf);
+            ret = buf.length;
+        }
+        return ret;
+    }
+
+    /**
+     * Decodes everything until the end of {@code reader}.
+     */
+    public static byte[] decode(Reader reader) throws IOException {
+        Decoder decoder = new Decoder(6 * 1024);
+        char[] buf = new char[8 * 1024];
+        int len;
+        while ((len = reader.read(buf)) != -1) {
+            decoder.update(buf, 0, len);
+        }
+        return decoder.toByteArray();
+    }
+
+    private static int countPadding(CharSequence in, int offset, int length) {
+        int ret = 0;
+        for (int i = offset + length - 1; (i >= offset) && (ret < 2) && (in.charAt(i) == '='); i--) {
+            ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * Combines four characters into 24 bits, or returns a negative number if any of them isn't in the alphabet.
+     */
+    private static int quad(char a, char b, char c, char d) {
+        if ((a | b | c | d) >= 128) {
+            return -1;
+        }
+        // Negative table entries are sign extended, so any of them makes the result negative
+        return (DECODE[a] << 18) | (DECODE[b] << 12) | (DECODE[c] << 6) | DECODE[d];
+    }
+
+    /**
+     * An incremental decoder, input can be fed in arbitrary chunks. Instances are not thread safe.
+     */
+    public static final class Decoder {
+        private final boolean growable;
+        private final int outOffset;
+        private byte[] out;
+        private int outPos;
+
+        private int bits = 0;
+        private int count = 0; // Number of sextets in bits
+        private int padding = 0;
+
+        /**
+         * Decodes into an internal array that starts at {@code expectedLength} bytes and grows as needed.
+         */
+        public Decoder(int expectedLength) {
+            growable = true;
+            out = new byte[Math.max(expectedLength, 0)];
+            outOffset = 0;
+            outPos = 0;
+        }
+
+        /**
+         * Decodes into {@code out} starting at {@code offset}.
+         */
+        public Decoder(byte[] out, int offset) {
+            growable = false;
+            this.out = out;
+            outOffset = offset;
+            outPos = offset;
+        }
+
+        public Decoder update(char[] in, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+            while (i < end) {
+                if ((count == 0) && (end - i >= 4)) {
+                    int v = quad(in[i], in[i + 1], in[i + 2], in[i + 3]);
+                    if (v >= 0) {
+                        put(v);
+                        i += 4;
+                        continue;
+                    }
+                }
+                step(in[i++]);
+            }
+            return this;
+        }
+
+        public Decoder update(CharSequence in, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+            while (i < end) {
+                if ((count == 0) && (end - i >= 4)) {
+                    int v = quad(in.charAt(i), in.charAt(i + 1), in.charAt(i + 2), in.charAt(i + 3));
+                    if (v >= 0) {
+                        put(v);
+                        i += 4;
+                        continue;
+                    }
+                }
+                step(in.charAt(i++));
+            }
+            return this;
+        }
+
+        private void step(char c) {
+            int d = (c < 128) ? DECODE[c] : INVALID;
+            switch (d) {
+                case SKIP:
+                    return;
+                case INVALID:
+                    throw new IllegalArgumentException("bad base-64");
+                case PAD:
+                    if ((count < 2) || (count + padding >= 4)) {
+                        throw new IllegalArgumentException("bad base-64");
+                    }
+                    padding++;
+                    return;
+            }
+
+            if (padding > 0) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+
+            bits = (bits << 6) | d;
+            if (++count == 4) {
+                put(bits);
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        private void put(int v) {
+            ensureCapacity(3);
+            out[outPos++] = (byte) (v >> 16);
+            out[outPos++] = (byte) (v >> 8);
+            out[outPos++] = (byte) v;
+        }
+
+        private void ensureCapacity(int length) {
+            if (outPos + length <= out.length) {
+                return;
+            }
+            if (!growable) {
+                throw new IndexOutOfBoundsException("Output buffer too small");
+            }
+            out = Arrays.copyOf(out, Math.max(outPos + length, out.length * 2));
+        }
+
+        /**
+         * Flushes the trailing partial group and resets the decoder for new input.
+         *
+         * @return the total number of bytes written.
+         */
+        public int finish() {
+            if ((count == 1) || ((count == 2) && (padding == 1))) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+
+            if (count == 2) {
+                ensureCapacity(1);
+                out[outPos++] = (byte) (bits >> 4);
+            } else if (count == 3) {
+                ensureCapacity(2);
+                out[outPos++] = (byte) (bits >> 10);
+                out[outPos++] = (byte) (bits >> 2);
+            }
+
+            bits = 0;
+            count = 0;
+            padding = 0;
+            return outPos - outOffset;
+        }
+
+        /**
+         * Finishes and returns the decoded bytes, without copying if the expected length was exact.
+         */
+        public byte[] toByteArray() {
+            int length = finish();
+            return ((outOffset == 0) && (length == out.length)) ? out : Arrays.copyOfRange(out, outOffset, outPos);
+        }
+    }
+}
@@ -27,15 +27,19 @@ import static org.junit.Assert.assertNotEquals;
 public class AuthenticatorTest {
     private OkHttpClient httpClient;
     private HttpUrl remote;
+    private FakeServer server;
 
     @Before
     public void setUp() throws IOException {
         httpClient = HttpClient.create(null);
-        remote = HttpUrl.parse("http://localhost:8000"); // FIXME: hardcode for now, should make configureable
+        server = new FakeServer();
+        server.start();
+        remote = server.url();
     }
 
     @After
     public void tearDown() throws IOException {
+        server.shutdown();
     }
 
     @Test
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2013 – 2015 Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package com.etesync.syncadapter.journalmanager;
+
+import com.etesync.syncadapter.utils.Base64;
+import com.etesync.syncadapter.utils.Base64Codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Base64Codec} with the copy of Android's {@link Base64}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Base64Benchmark {
+    @Param({"10240", "102400", "1048576", "5242880"})
+    public int size;
+
+    private byte[] data;
+    private String encoded;
+    private char[] encodeBuffer;
+    private byte[] decodeBuffer;
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(0).nextBytes(data);
+        encoded = Base64.encodeToString(data, Base64.NO_WRAP);
+        encodeBuffer = new char[Base64Codec.encodedLength(size)];
+        decodeBuffer = new byte[size];
+    }
+
+    @Benchmark
+    public String encodeAndroid() {
+        return Base64.encodeToString(data, Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public String encodeCodec() {
+        return Base64Codec.encodeToString(data);
+    }
+
+    @Benchmark
+    public char[] encodeCodecReuse() {
+        Base64Codec.encode(data, 0, data.length, encodeBuffer, 0);
+        return encodeBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeAndroid() {
+        return Base64.decode(encoded, Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public byte[] decodeCodec() {
+        return Base64Codec.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] decodeCodecReuse() {
+        Base64Codec.decode(encoded, 0, encoded.length(), decodeBuffer, 0);
+        return decodeBuffer;
+    }
+}
@@ -0,0 +1,114 @@
+package com.etesync.syncadapter.journalmanager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchSizeControllerTest {
+    private static final long TARGET_MILLIS = 1000;
+
+    @Test
+    public void testGrowthCapped() {
+        BatchSizeController controller = new BatchSizeController(10, 1, 1000, TARGET_MILLIS, Long.MAX_VALUE);
+
+        // Way faster than the target, but only allowed to double
+        controller.onSuccess(10, entries(10, 10), 1);
+        assertEquals(20, controller.getSize());
+        controller.onSuccess(20, entries(20, 10), 1);
+        assertEquals(40, controller.getSize());
+    }
+
+    @Test
+    public void testShrinksWhenSlow() {
+        BatchSizeController controller = new BatchSizeController(10, 1, 1000, TARGET_MILLIS, Long.MAX_VALUE);
+
+        controller.onSuccess(10, entries(10, 10), 2 * TARGET_MILLIS);
+        assertEquals(5, controller.getSize());
+
+        // Only allowed to halve
+        controller.onSuccess(5, entries(5, 10), 100 * TARGET_MILLIS);
+        assertEquals(2, controller.getSize());
+    }
+
+    @Test
+    public void testShortBatchDoesntGrow() {
+        BatchSizeController controller = new BatchSizeController(10, 1, 1000, TARGET_MILLIS, Long.MAX_VALUE);
+
+        controller.onSuccess(10, entries(3, 10), 1);
+        assertEquals(10, controller.getSize());
+    }
+
+    @Test
+    public void testEmptyBatchIgnored() {
+        BatchSizeController controller = new BatchSizeController(10, 1, 1000, TARGET_MILLIS, Long.MAX_VALUE);
+
+        controller.onSuccess(10, Collections.<JournalEntryManager.Entry>emptyList(), 100 * TARGET_MILLIS);
+        assertEquals(10, controller.getSize());
+    }
+
+    @Test
+    public void testByteCap() {
+        BatchSizeController controller = new BatchSizeController(10, 1, 1000, TARGET_MILLIS, 1000);
+
+        // Fast, but 200 bytes per entry only fit 5 entries into 1000 bytes
+        controller.onSuccess(10, entries(10, 200), 1);
+        assertEquals(5, controller.getSize());
+
+        // The entry size is averaged, so smaller entries let it grow again gradually
+        controller.onSuccess(5, entries(5, 50), 1);
+        assertEquals(6, controller.getSize());
+    }
+
+    @Test
+    public void testBounds() {
+        BatchSizeController controller = new BatchSizeController(100, 5, 20, TARGET_MILLIS, Long.MAX_VALUE);
+        assertEquals(20, controller.getSize());
+
+        controller.onSuccess(20, entries(20, 10), 1);
+        assertEquals(20, controller.getSize());
+
+        for (int i = 0; i < 5; i++) {
+            controller.onSuccess(20, entries(20, 10), 100 * TARGET_MILLIS);
+        }
+        assertEquals(5, controller.getSize());
+
+        controller.onError(new Exceptions.HttpException("Timeout"));
+        assertEquals(5, controller.getSize());
+    }
+
+    @Test
+    public void testShrinksOnSizeRelatedErrors() {
+        BatchSizeController controller = new BatchSizeController(64, 1, 1000, TARGET_MILLIS, Long.MAX_VALUE);
+
+        controller.onError(new Exceptions.ServiceUnavailableException("Connection reset"));
+        assertEquals(32, controller.getSize());
+        controller.onError(new Exceptions.HttpException(413, "Request Entity Too Large"));
+        assertEquals(16, controller.getSize());
+        controller.onError(new Exceptions.HttpException(500, "Internal Server Error"));
+        assertEquals(8, controller.getSize());
+        controller.onError(new Exceptions.HttpException(504, "Gateway Timeout"));
+        assertEquals(4, controller.getSize());
+    }
+
+    @Test
+    public void testKeepsSizeOnOtherErrors() {
+        BatchSizeController controller = new BatchSizeController(64, 1, 1000, TARGET_MILLIS, Long.MAX_VALUE);
+
+        for (int status : new int[]{400, 401, 403, 404, 409, 429}) {
+            controller.onError(new Exceptions.HttpException(status, "Error"));
+            assertEquals(64, controller.getSize());
+        }
+    }
+
+    private static List<JournalEntryManager.Entry> entries(int count, int size) {
+        List<JournalEntryManager.Entry> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ret.add(JournalEntryManager.Entry.fromEncrypted("uid" + i, new byte[size]));
+        }
+        return ret;
+    }
+}
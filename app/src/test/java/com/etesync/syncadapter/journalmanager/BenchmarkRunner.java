@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2013 – 2015 Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package com.etesync.syncadapter.journalmanager;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this package. They are skipped unless gradle is run with -Pbenchmark, for example:
+ * ./gradlew testStandardReleaseUnitTest -Pbenchmark --tests '*BenchmarkRunner'
+ * The results are written as JSON to app/build/reports/jmh/results.json.
+ */
+public class BenchmarkRunner {
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue(Boolean.getBoolean("etesync.benchmark"));
+
+        // The gradle test worker doesn't expose the test classpath, but JMH needs it for the forked VMs
+        System.setProperty("java.class.path", System.getProperty("etesync.benchmark.classpath"));
+
+        Options options = new OptionsBuilder()
+                .include(getClass().getPackage().getName() + "\\..*Benchmark")
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("etesync.benchmark.result"))
+                .build();
+
+        new Runner(options).run();
+    }
+}
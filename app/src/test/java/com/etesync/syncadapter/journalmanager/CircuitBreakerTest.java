@@ -0,0 +1,68 @@
+package com.etesync.syncadapter.journalmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private static final long OPEN_MILLIS = 200;
+
+    @Test
+    public void testOpensAfterFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("localhost", OPEN_MILLIS);
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+            assertTrue(isClosed(breaker));
+        }
+        breaker.onFailure();
+        assertFalse(isClosed(breaker));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("localhost", OPEN_MILLIS);
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        breaker.onSuccess();
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertTrue(isClosed(breaker));
+    }
+
+    @Test
+    public void testHalfOpen() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("localhost", OPEN_MILLIS);
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure();
+        }
+        assertFalse(isClosed(breaker));
+
+        // Once the open period is over a request may go through, and a single failure reopens the breaker
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertTrue(isClosed(breaker));
+        breaker.onFailure();
+        assertFalse(isClosed(breaker));
+
+        // While a success closes it for good
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertTrue(isClosed(breaker));
+        breaker.onSuccess();
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertTrue(isClosed(breaker));
+    }
+
+    private static boolean isClosed(CircuitBreaker breaker) {
+        try {
+            breaker.check();
+            return true;
+        } catch (Exceptions.ServiceUnavailableException e) {
+            assertTrue(e.retryAfter > 0);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2013 – 2015 Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package com.etesync.syncadapter.journalmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CryptoBenchmark {
+    @State(Scope.Benchmark)
+    public static class SymmetricState {
+        @Param({"1024", "65536", "1048576", "5242880"})
+        int size;
+
+        Crypto.CryptoManager crypto;
+        byte[] clearText;
+        byte[] cipherText;
+
+        @Setup
+        public void setUp() throws Exceptions.IntegrityException, Exceptions.VersionTooNewException {
+            crypto = new Crypto.CryptoManager(Constants.CURRENT_VERSION, Helpers.keyBase64, "TestSaltShouldBeJournalId");
+            clearText = new byte[size];
+            new Random(42).nextBytes(clearText);
+            cipherText = crypto.encrypt(clearText);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class AsymmetricState {
+        Crypto.AsymmetricKeyPair keyPair;
+        Crypto.AsymmetricCryptoManager crypto;
+        byte[] clearText;
+        byte[] cipherText;
+
+        @Setup
+        public void setUp() {
+            keyPair = Crypto.generateKeyPair();
+            crypto = new Crypto.AsymmetricCryptoManager(keyPair);
+            clearText = new byte[190];
+            new Random(42).nextBytes(clearText);
+            cipherText = crypto.encrypt(keyPair.getPublicKey(), clearText);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    public String deriveKey() {
+        return Crypto.deriveKey(Helpers.USER, Helpers.PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] encrypt(SymmetricState state) {
+        return state.crypto.encrypt(state.clearText);
+    }
+
+    @Benchmark
+    public byte[] decrypt(SymmetricState state) {
+        return state.crypto.decrypt(state.cipherText);
+    }
+
+    @Benchmark
+    public byte[] hmac(SymmetricState state) {
+        return state.crypto.hmac(state.cipherText);
+    }
+
+    @Benchmark
+    public byte[] asymmetricEncrypt(AsymmetricState state) {
+        return state.crypto.encrypt(state.keyPair.getPublicKey(), state.clearText);
+    }
+
+    @Benchmark
+    public byte[] asymmetricDecrypt(AsymmetricState state) {
+        return state.crypto.decrypt(state.cipherText);
+    }
+}
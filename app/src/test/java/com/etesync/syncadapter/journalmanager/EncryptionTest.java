@@ -9,6 +9,7 @@
 package com.etesync.syncadapter.journalmanager;
 
 import com.etesync.syncadapter.utils.Base64;
+import com.etesync.syncadapter.utils.Base64Codec;
 
 import org.apache.commons.codec.Charsets;
 import org.junit.After;
@@ -17,6 +18,11 @@ import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -60,6 +66,50 @@ public class EncryptionTest {
         assertEquals(expected, Base64.encodeToString(cryptoManager.hmac("Some test data".getBytes(Charsets.UTF_8)), Base64.NO_WRAP));
     }
 
+    @Test
+    public void testCryptoBuffers() throws Exceptions.IntegrityException, Exceptions.GenericCryptoException {
+        Crypto.CryptoManager cryptoManager = new Crypto.CryptoManager(2, Helpers.keyBase64, "TestSaltShouldBeJournalId");
+
+        byte[] clearText = "This Is Some Test Cleartext.".getBytes(Charsets.UTF_8);
+        byte[] cipher = new byte[cryptoManager.getEncryptOutputSize(clearText.length) + 3];
+        int cipherLen = cryptoManager.encrypt(clearText, 0, clearText.length, cipher, 3);
+        assertEquals(cipher.length - 3, cipherLen);
+
+        ByteBuffer out = ByteBuffer.allocate(cryptoManager.getDecryptOutputSize(cipherLen));
+        int len = cryptoManager.decrypt(ByteBuffer.wrap(cipher, 3, cipherLen), out);
+        assertEquals(clearText.length, len);
+        assertArrayEquals(clearText, Arrays.copyOf(out.array(), len));
+
+        byte[] prefix = "Some ".getBytes(Charsets.UTF_8);
+        byte[] data = "test data".getBytes(Charsets.UTF_8);
+        byte[] hmac = new byte[Crypto.CryptoManager.HMAC_SIZE];
+        cryptoManager.hmac(prefix, data, 0, data.length, hmac, 0);
+        assertArrayEquals(cryptoManager.hmac("Some test data".getBytes(Charsets.UTF_8)), hmac);
+    }
+
+    @Test
+    public void testCryptoBackends() throws GeneralSecurityException {
+        CryptoBackend.selfTest(new CryptoBackend.SpongyCastle(), new CryptoBackend.Jca());
+    }
+
+    @Test
+    public void testBase64Codec() throws IOException {
+        Random random = new Random(0);
+        for (int size : new int[]{0, 1, 2, 3, 4, 1000, 10 * 1024 + 1}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+
+            String expected = Base64.encodeToString(data, Base64.NO_WRAP);
+            assertEquals(expected, Base64Codec.encodeToString(data));
+            assertArrayEquals(data, Base64Codec.decode(expected));
+            assertArrayEquals(data, Base64Codec.decode(new StringReader(Base64.encodeToString(data, Base64.DEFAULT))));
+
+            byte[] out = new byte[size + 1];
+            assertEquals(size, Base64Codec.decode(expected, 0, expected.length(), out, 1));
+            assertArrayEquals(data, Arrays.copyOfRange(out, 1, size + 1));
+        }
+    }
+
     @Test(expected=Exceptions.VersionTooNewException.class)
     public void testCryptoVersionTooNew() throws Exceptions.IntegrityException, Exceptions.VersionTooNewException {
         new Crypto.CryptoManager(120, Helpers.keyBase64, "TestSaltShouldBeJournalId");
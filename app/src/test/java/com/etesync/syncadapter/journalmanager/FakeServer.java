@@ -0,0 +1,473 @@
+package com.etesync.syncadapter.journalmanager;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+/**
+ * An in-memory stand-in for the EteSync server, so the tests don't need a real one running on localhost.
+ * <p>
+ * It implements the parts of the API the client uses: api-token-auth, the journals with their entries and members,
+ * and the user info, as well as the reset endpoint of the test server. Entries are only accepted when chained to the
+ * journal's last entry, otherwise the request is rejected with 409 like the real server does. It knows
+ * {@link Helpers#USER} and {@link Helpers#USER2} out of the box.
+ * <p>
+ * Latency and bandwidth can be set to simulate a slow link, e.g. for throughput benchmarks.
+ */
+class FakeServer extends Dispatcher {
+    private static final long THROTTLE_PERIOD_MILLIS = 100;
+
+    private final MockWebServer server = new MockWebServer();
+
+    private final Map<String, String> passwords = new HashMap<>();
+    private final Map<String, String> tokens = new HashMap<>();
+    private final Map<String, FakeJournal> journals = new LinkedHashMap<>();
+    private final Map<String, JsonObject> userInfos = new HashMap<>();
+    /**
+     * Bumped on every change to the journal list, used as its ETag.
+     */
+    private int journalsVersion = 0;
+
+    private volatile long latencyMillis = 0;
+    private volatile long bytesPerSecond = 0;
+    /**
+     * Sent instead of the entries when listing them, if set.
+     */
+    private String entriesBody = null;
+    /**
+     * Sent instead of handling the next requests, in order.
+     */
+    private final Queue<MockResponse> scripted = new LinkedList<>();
+
+    FakeServer() {
+        server.setDispatcher(this);
+        addUser(Helpers.USER, Helpers.PASSWORD);
+        addUser(Helpers.USER2, Helpers.PASSWORD);
+    }
+
+    void start() throws IOException {
+        server.start();
+    }
+
+    void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    HttpUrl url() {
+        return server.url("/");
+    }
+
+    int getRequestCount() {
+        return server.getRequestCount();
+    }
+
+    synchronized void addUser(String user, String password) {
+        passwords.put(user, password);
+    }
+
+    /**
+     * Delays every response body by the given amount of time.
+     */
+    void setLatency(long millis) {
+        latencyMillis = millis;
+    }
+
+    /**
+     * Limits the rate at which response bodies are sent, or 0 for no limit.
+     */
+    void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Makes listing entries reply with the given body, e.g. to simulate a broken server, or null to stop doing so.
+     */
+    synchronized void setEntriesBody(String body) {
+        entriesBody = body;
+    }
+
+    /**
+     * Makes the next request get the given response instead of being handled, e.g. to simulate a failing server. If
+     * called several times, the responses are sent in order.
+     */
+    synchronized void enqueue(MockResponse response) {
+        scripted.add(response);
+    }
+
+    @Override
+    public synchronized MockResponse dispatch(RecordedRequest request) {
+        if (!scripted.isEmpty()) {
+            return scripted.remove();
+        }
+
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        List<String> path = new ArrayList<>(url.pathSegments());
+        if (!path.isEmpty() && path.get(path.size() - 1).isEmpty()) {
+            path.remove(path.size() - 1);
+        }
+        String method = request.getMethod();
+
+        try {
+            if (path.equals(segments("api-token-auth")) && method.equals("POST")) {
+                return authToken(readBody(request));
+            }
+
+            String user = authenticate(request);
+            if (user == null) {
+                return error(HttpURLConnection.HTTP_UNAUTHORIZED, "Invalid token.", "not_authenticated");
+            }
+
+            if (path.equals(segments("reset")) && method.equals("POST")) {
+                journals.clear();
+                userInfos.clear();
+                journalsVersion++;
+                return respond(new MockResponse());
+            } else if ((path.size() >= 3) && path.subList(0, 3).equals(segments("api", "v1", "journals"))) {
+                return journals(request, user, url, path.subList(3, path.size()));
+            } else if ((path.size() >= 3) && path.subList(0, 3).equals(segments("api", "v1", "user"))) {
+                return userInfo(request, user, path.subList(3, path.size()));
+            }
+        } catch (IOException | RuntimeException e) {
+            return error(HttpURLConnection.HTTP_BAD_REQUEST, "Bad request: " + e, "bad_request");
+        }
+
+        return notFound();
+    }
+
+    private MockResponse authToken(String body) {
+        HttpUrl form = HttpUrl.parse("http://localhost/?" + body);
+        String user = form.queryParameter("username");
+        String password = form.queryParameter("password");
+        if ((user == null) || (password == null) || !password.equals(passwords.get(user))) {
+            return error(HttpURLConnection.HTTP_BAD_REQUEST, "Unable to log in with provided credentials.", "invalid");
+        }
+
+        String token = UUID.randomUUID().toString();
+        tokens.put(token, user);
+
+        JsonObject ret = new JsonObject();
+        ret.addProperty("token", token);
+        return json(HttpURLConnection.HTTP_OK, ret);
+    }
+
+    private String authenticate(RecordedRequest request) {
+        String header = request.getHeader("Authorization");
+        if ((header == null) || !header.startsWith("Token ")) {
+            return null;
+        }
+        return tokens.get(header.substring("Token ".length()));
+    }
+
+    private MockResponse journals(RecordedRequest request, String user, HttpUrl url, List<String> path) throws IOException {
+        String method = request.getMethod();
+
+        if (path.isEmpty()) {
+            if (method.equals("GET")) {
+                String etag = "\"" + journalsVersion + "\"";
+                if (etag.equals(request.getHeader("If-None-Match"))) {
+                    return respond(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED));
+                }
+
+                JsonArray ret = new JsonArray();
+                for (FakeJournal journal : journals.values()) {
+                    if (journal.canRead(user)) {
+                        ret.add(journal.toJson(user));
+                    }
+                }
+                return json(HttpURLConnection.HTTP_OK, ret).setHeader("ETag", etag);
+            } else if (method.equals("POST")) {
+                JsonObject body = parseObject(request);
+                String uid = body.get("uid").getAsString();
+                if (journals.containsKey(uid)) {
+                    return error(HttpURLConnection.HTTP_BAD_REQUEST, "Journal with this uid already exists.", "unique");
+                }
+                journals.put(uid, new FakeJournal(user, uid, body.get("content"), body.get("version").getAsInt()));
+                journalsVersion++;
+                return json(HttpURLConnection.HTTP_CREATED, body);
+            }
+            return notAllowed();
+        }
+
+        FakeJournal journal = journals.get(path.get(0));
+        if ((journal == null) || !journal.canRead(user)) {
+            return notFound();
+        }
+        path = path.subList(1, path.size());
+
+        if (path.isEmpty()) {
+            if (method.equals("GET")) {
+                return json(HttpURLConnection.HTTP_OK, journal.toJson(user));
+            } else if (!journal.owner.equals(user)) {
+                return error(HttpURLConnection.HTTP_FORBIDDEN, "Only the owner can change the journal.", "permission_denied");
+            }
+            switch (method) {
+                case "PUT":
+                    journal.content = parseObject(request).get("content");
+                    journalsVersion++;
+                    return json(HttpURLConnection.HTTP_OK, journal.toJson(user));
+                case "DELETE":
+                    journals.remove(journal.uid);
+                    journalsVersion++;
+                    return respond(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NO_CONTENT));
+            }
+            return notAllowed();
+        } else if (path.get(0).equals("entries") && (path.size() == 1)) {
+            switch (method) {
+                case "GET":
+                    return listEntries(journal, url.queryParameter("last"), url.queryParameter("limit"));
+                case "POST":
+                    return createEntries(journal, url.queryParameter("last"), parse(request).getAsJsonArray());
+            }
+            return notAllowed();
+        } else if (path.get(0).equals("members")) {
+            if (!journal.owner.equals(user)) {
+                return error(HttpURLConnection.HTTP_FORBIDDEN, "Only the owner can manage members.", "permission_denied");
+            }
+            return members(request, journal, path.subList(1, path.size()));
+        }
+
+        return notFound();
+    }
+
+    private MockResponse listEntries(FakeJournal journal, String last, String limit) {
+        if (entriesBody != null) {
+            return respond(new MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(entriesBody));
+        }
+
+        int start = 0;
+        if (last != null) {
+            start = journal.indexOf(last) + 1;
+            if (start == 0) {
+                return error(HttpURLConnection.HTTP_BAD_REQUEST, "Entry with last uid not found.", "not_found");
+            }
+        }
+        int end = journal.entries.size();
+        if ((limit != null) && (Integer.parseInt(limit) > 0)) {
+            end = Math.min(end, start + Integer.parseInt(limit));
+        }
+
+        JsonArray ret = new JsonArray();
+        for (JsonObject entry : journal.entries.subList(start, end)) {
+            ret.add(entry);
+        }
+        return json(HttpURLConnection.HTTP_OK, ret);
+    }
+
+    private MockResponse createEntries(FakeJournal journal, String last, JsonArray entries) {
+        String currentLast = journal.entries.isEmpty() ? null : journal.entries.get(journal.entries.size() - 1).get("uid").getAsString();
+        if ((last == null) ? (currentLast != null) : !last.equals(currentLast)) {
+            return error(HttpURLConnection.HTTP_CONFLICT, "Wrong last uid, the journal has changed.", "wrong_last");
+        }
+
+        for (JsonElement element : entries) {
+            if (journal.indexOf(element.getAsJsonObject().get("uid").getAsString()) >= 0) {
+                return error(HttpURLConnection.HTTP_BAD_REQUEST, "Entry with this uid already exists.", "unique");
+            }
+        }
+        for (JsonElement element : entries) {
+            JsonObject entry = new JsonObject();
+            entry.add("uid", element.getAsJsonObject().get("uid"));
+            entry.add("content", element.getAsJsonObject().get("content"));
+            journal.entries.add(entry);
+        }
+        return json(HttpURLConnection.HTTP_CREATED, new JsonArray());
+    }
+
+    private MockResponse members(RecordedRequest request, FakeJournal journal, List<String> path) throws IOException {
+        String method = request.getMethod();
+
+        if (path.isEmpty()) {
+            if (method.equals("GET")) {
+                JsonArray ret = new JsonArray();
+                for (Map.Entry<String, JsonElement> member : journal.members.entrySet()) {
+                    JsonObject item = new JsonObject();
+                    item.addProperty("user", member.getKey());
+                    item.add("key", member.getValue());
+                    ret.add(item);
+                }
+                return json(HttpURLConnection.HTTP_OK, ret);
+            } else if (method.equals("POST")) {
+                JsonObject body = parseObject(request);
+                String member = body.get("user").getAsString();
+                if (member.equals(journal.owner)) {
+                    return error(HttpURLConnection.HTTP_BAD_REQUEST, "Can't share a journal with its owner.", "invalid");
+                } else if (!passwords.containsKey(member)) {
+                    return error(HttpURLConnection.HTTP_BAD_REQUEST, "User doesn't exist.", "does_not_exist");
+                }
+                journal.members.put(member, body.get("key"));
+                journalsVersion++;
+                return json(HttpURLConnection.HTTP_CREATED, body);
+            }
+            return notAllowed();
+        } else if ((path.size() == 1) && method.equals("DELETE")) {
+            if (journal.members.remove(path.get(0)) == null) {
+                return notFound();
+            }
+            journalsVersion++;
+            return respond(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NO_CONTENT));
+        }
+
+        return notFound();
+    }
+
+    private MockResponse userInfo(RecordedRequest request, String user, List<String> path) throws IOException {
+        String method = request.getMethod();
+
+        if (path.isEmpty()) {
+            if (!method.equals("POST")) {
+                return notAllowed();
+            } else if (userInfos.containsKey(user)) {
+                return error(HttpURLConnection.HTTP_BAD_REQUEST, "User info already exists.", "unique");
+            }
+            userInfos.put(user, parseObject(request));
+            return json(HttpURLConnection.HTTP_CREATED, userInfos.get(user));
+        } else if (path.size() == 1) {
+            String owner = path.get(0);
+            if (method.equals("GET")) {
+                JsonObject ret = userInfos.get(owner);
+                return (ret != null) ? json(HttpURLConnection.HTTP_OK, ret) : notFound();
+            } else if (!owner.equals(user)) {
+                return error(HttpURLConnection.HTTP_FORBIDDEN, "Can only change your own user info.", "permission_denied");
+            } else if (!userInfos.containsKey(owner)) {
+                return notFound();
+            }
+
+            switch (method) {
+                case "PUT":
+                    userInfos.put(owner, parseObject(request));
+                    return json(HttpURLConnection.HTTP_OK, userInfos.get(owner));
+                case "DELETE":
+                    userInfos.remove(owner);
+                    return respond(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NO_CONTENT));
+            }
+            return notAllowed();
+        }
+
+        return notFound();
+    }
+
+    private static List<String> segments(String... segments) {
+        List<String> ret = new ArrayList<>();
+        for (String segment : segments) {
+            ret.add(segment);
+        }
+        return ret;
+    }
+
+    private static String readBody(RecordedRequest request) throws IOException {
+        Buffer body = request.getBody();
+        if ("gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+            return Okio.buffer(new GzipSource(body)).readUtf8();
+        }
+        return body.readUtf8();
+    }
+
+    private static JsonElement parse(RecordedRequest request) throws IOException {
+        return new JsonParser().parse(readBody(request));
+    }
+
+    private static JsonObject parseObject(RecordedRequest request) throws IOException {
+        return parse(request).getAsJsonObject();
+    }
+
+    private MockResponse json(int code, JsonElement body) {
+        return respond(new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json")
+                .setBody(body.toString()));
+    }
+
+    private MockResponse error(int code, String detail, String errorCode) {
+        JsonObject body = new JsonObject();
+        body.addProperty("detail", detail);
+        body.addProperty("code", errorCode);
+        return json(code, body);
+    }
+
+    private MockResponse notFound() {
+        return error(HttpURLConnection.HTTP_NOT_FOUND, "Not found.", "not_found");
+    }
+
+    private MockResponse notAllowed() {
+        return error(HttpURLConnection.HTTP_BAD_METHOD, "Method not allowed.", "method_not_allowed");
+    }
+
+    private MockResponse respond(MockResponse response) {
+        if (latencyMillis > 0) {
+            response.setBodyDelay(latencyMillis, TimeUnit.MILLISECONDS);
+        }
+        if (bytesPerSecond > 0) {
+            long bytesPerPeriod = Math.max(1, bytesPerSecond * THROTTLE_PERIOD_MILLIS / 1000);
+            response.throttleBody(bytesPerPeriod, THROTTLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    private static class FakeJournal {
+        final String owner;
+        final String uid;
+        final int version;
+        JsonElement content;
+        final List<JsonObject> entries = new ArrayList<>();
+        /**
+         * The members' encrypted journal keys, by user.
+         */
+        final Map<String, JsonElement> members = new LinkedHashMap<>();
+
+        FakeJournal(String owner, String uid, JsonElement content, int version) {
+            this.owner = owner;
+            this.uid = uid;
+            this.content = content;
+            this.version = version;
+        }
+
+        boolean canRead(String user) {
+            return owner.equals(user) || members.containsKey(user);
+        }
+
+        int indexOf(String entryUid) {
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).get("uid").getAsString().equals(entryUid)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        JsonObject toJson(String user) {
+            JsonObject ret = new JsonObject();
+            ret.addProperty("uid", uid);
+            ret.add("content", content);
+            ret.addProperty("version", version);
+            ret.addProperty("owner", owner);
+            ret.add("key", owner.equals(user) ? JsonNull.INSTANCE : members.get(user));
+            ret.addProperty("readOnly", false);
+            return ret;
+        }
+    }
+}
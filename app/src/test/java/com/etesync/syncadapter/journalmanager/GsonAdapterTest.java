@@ -0,0 +1,144 @@
+package com.etesync.syncadapter.journalmanager;
+
+import com.etesync.syncadapter.GsonHelper;
+import com.etesync.syncadapter.model.CollectionInfo;
+import com.etesync.syncadapter.model.SyncEntry;
+import com.etesync.syncadapter.utils.Base64;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+import org.apache.commons.codec.Charsets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Makes sure the hand written type adapters read and write the same JSON as the reflective Gson they replaced.
+ */
+public class GsonAdapterTest {
+    // GsonHelper.gson and CollectionInfo's gson before they had type adapters
+    private static final Gson reflectiveGson = new GsonBuilder()
+            .registerTypeHierarchyAdapter(byte[].class, new ByteArrayToBase64TypeAdapter())
+            .create();
+    private static final Gson reflectiveExposedGson = new GsonBuilder()
+            .excludeFieldsWithoutExposeAnnotation()
+            .create();
+
+    private Crypto.CryptoManager crypto;
+
+    @Before
+    public void setUp() throws Exceptions.IntegrityException, Exceptions.VersionTooNewException {
+        crypto = new Crypto.CryptoManager(Constants.CURRENT_VERSION, Helpers.keyBase64, "TestSaltShouldBeJournalId");
+    }
+
+    @Test
+    public void testEntry() {
+        JournalEntryManager.Entry entry = new JournalEntryManager.Entry();
+        entry.update(crypto, "Some content", null);
+        assertSameJson(reflectiveGson, GsonHelper.gson, entry, JournalEntryManager.Entry.class);
+
+        assertSameJson(reflectiveGson, GsonHelper.gson, JournalEntryManager.Entry.getFakeWithUid("uid"), JournalEntryManager.Entry.class);
+        assertSameJson(reflectiveGson, GsonHelper.gson, new JournalEntryManager.Entry(), JournalEntryManager.Entry.class);
+    }
+
+    @Test
+    public void testJournal() {
+        JournalManager.Journal journal = new JournalManager.Journal(crypto, "Some content", JournalManager.Journal.genUid());
+        assertSameJson(reflectiveGson, GsonHelper.gson, journal, JournalManager.Journal.class);
+
+        assertSameJson(reflectiveGson, GsonHelper.gson, JournalManager.Journal.fakeWithUid("uid"), JournalManager.Journal.class);
+
+        String json = "{\"owner\":\"" + Helpers.USER + "\",\"key\":\"a2V5\",\"version\":2,\"readOnly\":true,\"uid\":\"uid\",\"content\":\"Y29udGVudA==\"}";
+        assertSameRead(reflectiveGson, GsonHelper.gson, json, JournalManager.Journal.class);
+    }
+
+    @Test
+    public void testMember() {
+        assertSameJson(reflectiveGson, GsonHelper.gson, new JournalManager.Member(Helpers.USER, "key".getBytes(Charsets.UTF_8)), JournalManager.Member.class);
+        assertSameJson(reflectiveGson, GsonHelper.gson, new JournalManager.Member(null, null), JournalManager.Member.class);
+    }
+
+    @Test
+    public void testUserInfo() {
+        UserInfoManager.UserInfo userInfo = new UserInfoManager.UserInfo(crypto, Helpers.USER, "pubkey".getBytes(Charsets.UTF_8), "content".getBytes(Charsets.UTF_8));
+        assertSameJson(reflectiveGson, GsonHelper.gson, userInfo, UserInfoManager.UserInfo.class);
+
+        userInfo = new UserInfoManager.UserInfo(crypto, Helpers.USER, null, "content".getBytes(Charsets.UTF_8));
+        assertSameJson(reflectiveGson, GsonHelper.gson, userInfo, UserInfoManager.UserInfo.class);
+    }
+
+    @Test
+    public void testSyncEntry() {
+        assertSameJson(reflectiveGson, GsonHelper.gson, new SyncEntry("BEGIN:VCARD", SyncEntry.Actions.CHANGE), SyncEntry.class);
+        assertSameJson(reflectiveGson, GsonHelper.gson, new SyncEntry(null, null), SyncEntry.class);
+
+        assertSameRead(reflectiveGson, GsonHelper.gson, "{\"content\":\"BEGIN:VCARD\",\"action\":\"MOVE\"}", SyncEntry.class);
+        assertNull(GsonHelper.gson.fromJson("{\"action\":\"MOVE\"}", SyncEntry.class).getAction());
+    }
+
+    @Test
+    public void testCollectionInfo() {
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.CALENDAR);
+        info.uid = "uid";
+        info.description = "Description";
+        info.color = 0xff00ff00;
+        info.timeZone = "Europe/London";
+        assertSameCollectionInfoJson(info);
+
+        info = new CollectionInfo();
+        assertSameCollectionInfoJson(info);
+
+        String json = "{\"version\":1,\"type\":\"TASKS\",\"displayName\":\"Tasks\",\"selected\":true}";
+        assertEquals(reflectiveExposedGson.toJson(reflectiveExposedGson.fromJson(json, CollectionInfo.class)),
+                reflectiveExposedGson.toJson(CollectionInfo.fromJson(json)));
+        assertNull(CollectionInfo.fromJson(json).type);
+    }
+
+    private void assertSameCollectionInfoJson(CollectionInfo info) {
+        JsonParser parser = new JsonParser();
+        String expected = reflectiveExposedGson.toJson(info, CollectionInfo.class);
+        assertEquals(parser.parse(expected), parser.parse(info.toJson()));
+        assertEquals(parser.parse(expected), parser.parse(CollectionInfo.fromJson(expected).toJson()));
+    }
+
+    /**
+     * Asserts both write the same JSON for {@code value}, including leaving out the null fields, and that reading it
+     * back writes the same JSON again.
+     */
+    private static <T> void assertSameJson(Gson expectedGson, Gson actualGson, T value, Class<T> clazz) {
+        JsonParser parser = new JsonParser();
+        String expected = expectedGson.toJson(value, clazz);
+        assertEquals(parser.parse(expected), parser.parse(actualGson.toJson(value, clazz)));
+        assertSameRead(expectedGson, actualGson, expected, clazz);
+    }
+
+    /**
+     * Asserts both read {@code json} into values which {@code expectedGson} writes the same.
+     */
+    private static <T> void assertSameRead(Gson expectedGson, Gson actualGson, String json, Class<T> clazz) {
+        JsonParser parser = new JsonParser();
+        assertEquals(parser.parse(expectedGson.toJson(expectedGson.fromJson(json, clazz), clazz)),
+                parser.parse(expectedGson.toJson(actualGson.fromJson(json, clazz), clazz)));
+    }
+
+    private static class ByteArrayToBase64TypeAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
+        public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) {
+            return Base64.decode(json.getAsString(), Base64.NO_WRAP);
+        }
+
+        public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
+            return new JsonPrimitive(Base64.encodeToString(src, Base64.NO_WRAP));
+        }
+    }
+}
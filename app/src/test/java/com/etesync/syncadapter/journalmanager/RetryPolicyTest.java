@@ -0,0 +1,66 @@
+package com.etesync.syncadapter.journalmanager;
+
+import org.junit.Test;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private final RetryPolicy policy = new RetryPolicy(3, 1000, 15000, 60000);
+
+    @Test
+    public void testCanRetry() {
+        assertTrue(policy.canRetry(0, 0));
+        assertTrue(policy.canRetry(2, 0));
+        assertFalse(policy.canRetry(3, 0));
+
+        // The server's Retry-After is waited for only up to a point
+        assertTrue(policy.canRetry(0, 60000));
+        assertFalse(policy.canRetry(0, 60001));
+    }
+
+    @Test
+    public void testDelay() {
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getDelay(0, 0);
+            assertTrue((delay >= 0) && (delay <= 1000));
+
+            delay = policy.getDelay(2, 0);
+            assertTrue((delay >= 0) && (delay <= 4000));
+
+            // Backoff is capped
+            delay = policy.getDelay(30, 0);
+            assertTrue((delay >= 0) && (delay <= 15000));
+
+            // And never shorter than what the server asked for
+            assertTrue(policy.getDelay(0, 5000) >= 5000);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        assertEquals(120, RetryPolicy.getRetryAfter(response("120")));
+        assertEquals(120000, RetryPolicy.getRetryAfterMillis(response(" 120 ")));
+        assertEquals(0, RetryPolicy.getRetryAfter(response(null)));
+        assertEquals(0, RetryPolicy.getRetryAfter(response("-5")));
+        // HTTP dates aren't supported
+        assertEquals(0, RetryPolicy.getRetryAfter(response("Wed, 21 Oct 2015 07:28:00 GMT")));
+    }
+
+    private static Response response(String retryAfter) {
+        Response.Builder builder = new Response.Builder()
+                .request(new Request.Builder().url("http://localhost/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(503)
+                .message("Service Unavailable");
+        if (retryAfter != null) {
+            builder.header("Retry-After", retryAfter);
+        }
+        return builder.build();
+    }
+}
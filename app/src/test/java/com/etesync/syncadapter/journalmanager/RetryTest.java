@@ -0,0 +1,207 @@
+package com.etesync.syncadapter.journalmanager;
+
+import com.etesync.syncadapter.App;
+import com.etesync.syncadapter.HttpClient;
+import com.etesync.syncadapter.model.CollectionInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests how {@link BaseManager#newCall} retries, and when its {@link CircuitBreaker} stops it from trying.
+ */
+public class RetryTest {
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private FakeServer server;
+    private JournalManager journalManager;
+
+    @Before
+    public void setUp() throws Exception {
+        CircuitBreaker.reset();
+        server = new FakeServer();
+        server.start();
+        HttpUrl remote = server.url();
+        String authToken = new JournalAuthenticator(HttpClient.create(null), remote).getAuthToken(Helpers.USER, Helpers.PASSWORD);
+        OkHttpClient httpClient = HttpClient.create(null, App.log, null, authToken);
+
+        journalManager = new JournalManager(httpClient, remote);
+        journalManager.retryPolicy = new RetryPolicy(3, 1, 10, 5000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        CircuitBreaker.reset();
+    }
+
+    @Test
+    public void testRetriesTemporaryFailures() throws Exceptions.HttpException {
+        server.enqueue(error(HttpURLConnection.HTTP_BAD_GATEWAY));
+        server.enqueue(error(HttpURLConnection.HTTP_UNAVAILABLE));
+        server.enqueue(error(HttpURLConnection.HTTP_GATEWAY_TIMEOUT));
+        int requests = server.getRequestCount();
+
+        assertEquals(0, journalManager.list().size());
+        assertEquals(requests + 4, server.getRequestCount());
+    }
+
+    @Test
+    public void testGivesUp() {
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(error(HttpURLConnection.HTTP_UNAVAILABLE));
+        }
+        int requests = server.getRequestCount();
+
+        try {
+            journalManager.list();
+            fail();
+        } catch (Exceptions.ServiceUnavailableException e) {
+            // Expected
+        } catch (Exceptions.HttpException e) {
+            fail("Wrong exception: " + e);
+        }
+        assertEquals(requests + 4, server.getRequestCount());
+    }
+
+    @Test
+    public void testDoesntRetryOtherErrors() {
+        server.enqueue(error(HttpURLConnection.HTTP_INTERNAL_ERROR));
+        int requests = server.getRequestCount();
+
+        Exception caught = null;
+        try {
+            journalManager.list();
+        } catch (Exceptions.HttpException e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testRetryAfter() throws Exceptions.HttpException {
+        server.enqueue(error(HttpURLConnection.HTTP_UNAVAILABLE).setHeader("Retry-After", "1"));
+
+        long start = System.currentTimeMillis();
+        journalManager.list();
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    public void testRetryAfterTooLong() {
+        // More than the policy is willing to wait, so the sync should be rescheduled instead
+        server.enqueue(error(HttpURLConnection.HTTP_UNAVAILABLE).setHeader("Retry-After", "120"));
+        int requests = server.getRequestCount();
+
+        try {
+            journalManager.list();
+            fail();
+        } catch (Exceptions.ServiceUnavailableException e) {
+            assertEquals(120, e.retryAfter);
+        } catch (Exceptions.HttpException e) {
+            fail("Wrong exception: " + e);
+        }
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testDoesntRetryPost() throws Exceptions.IntegrityException, Exceptions.GenericCryptoException {
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.ADDRESS_BOOK);
+        info.uid = JournalManager.Journal.genUid();
+        info.displayName = "Test";
+        Crypto.CryptoManager crypto = new Crypto.CryptoManager(Constants.CURRENT_VERSION, Helpers.keyBase64, info.uid);
+        JournalManager.Journal journal = new JournalManager.Journal(crypto, info.toJson(), info.uid);
+
+        server.enqueue(error(HttpURLConnection.HTTP_UNAVAILABLE));
+        int requests = server.getRequestCount();
+
+        try {
+            journalManager.create(journal);
+            fail();
+        } catch (Exceptions.ServiceUnavailableException e) {
+            // Expected
+        } catch (Exceptions.HttpException e) {
+            fail("Wrong exception: " + e);
+        }
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testBreakerOpens() throws Exceptions.HttpException {
+        journalManager.retryPolicy = new RetryPolicy(0, 1, 10, 5000);
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(error(HttpURLConnection.HTTP_UNAVAILABLE));
+            try {
+                journalManager.list();
+                fail();
+            } catch (Exceptions.ServiceUnavailableException e) {
+                // Expected
+            }
+        }
+
+        // The server is fine again, but we don't get to find out for now
+        int requests = server.getRequestCount();
+        try {
+            journalManager.list();
+            fail();
+        } catch (Exceptions.ServiceUnavailableException e) {
+            assertTrue(e.retryAfter > 0);
+        }
+        assertEquals(requests, server.getRequestCount());
+    }
+
+    @Test
+    public void testBreakerCountsRequestsNotAttempts() throws Exceptions.HttpException {
+        // Four requests failing after all their retries are still one short of opening the breaker
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                server.enqueue(error(HttpURLConnection.HTTP_UNAVAILABLE));
+            }
+            try {
+                journalManager.list();
+                fail();
+            } catch (Exceptions.ServiceUnavailableException e) {
+                // Expected
+            }
+        }
+
+        journalManager.list();
+    }
+
+    @Test
+    public void testRateLimitingDoesntOpenBreaker() throws Exceptions.HttpException {
+        journalManager.retryPolicy = new RetryPolicy(0, 1, 10, 5000);
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(error(HTTP_TOO_MANY_REQUESTS).setHeader("Retry-After", "30"));
+            try {
+                journalManager.list();
+                fail();
+            } catch (Exceptions.ServiceUnavailableException e) {
+                assertEquals(30, e.retryAfter);
+            }
+        }
+
+        journalManager.list();
+    }
+
+    private static MockResponse error(int code) {
+        return new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"detail\":\"Error\",\"code\":\"error\"}");
+    }
+}
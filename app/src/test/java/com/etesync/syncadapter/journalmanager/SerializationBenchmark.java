@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2013 – 2015 Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package com.etesync.syncadapter.journalmanager;
+
+import com.etesync.syncadapter.GsonHelper;
+import com.etesync.syncadapter.model.CollectionInfo;
+import com.etesync.syncadapter.model.SyncEntry;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    private static final int CHAIN_LENGTH = 1000;
+    private static final Type entryType = new TypeToken<List<JournalEntryManager.Entry>>() {
+    }.getType();
+
+    private Crypto.CryptoManager crypto;
+    private List<JournalEntryManager.Entry> entries;
+    private String entriesJson;
+    private JournalManager.Journal journal;
+    private String journalJson;
+    private SyncEntry syncEntry;
+    private String syncEntryJson;
+
+    @Setup
+    public void setUp() throws Exceptions.IntegrityException, Exceptions.VersionTooNewException {
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.ADDRESS_BOOK);
+        info.uid = JournalManager.Journal.genUid();
+        crypto = new Crypto.CryptoManager(info.version, Helpers.keyBase64, info.uid);
+
+        StringBuilder vcard = new StringBuilder("BEGIN:VCARD\r\nVERSION:4.0\r\nFN:Test\r\n");
+        for (int i = 0; i < 20; i++) {
+            vcard.append("NOTE:Some test note number ").append(i).append("\r\n");
+        }
+        vcard.append("END:VCARD\r\n");
+        syncEntry = new SyncEntry(vcard.toString(), SyncEntry.Actions.ADD);
+        syncEntryJson = syncEntry.toJson();
+
+        entries = new ArrayList<>(CHAIN_LENGTH);
+        JournalEntryManager.Entry previous = null;
+        for (int i = 0; i < CHAIN_LENGTH; i++) {
+            JournalEntryManager.Entry entry = new JournalEntryManager.Entry();
+            entry.update(crypto, syncEntryJson, previous);
+            entries.add(entry);
+            previous = entry;
+        }
+        entriesJson = GsonHelper.gson.toJson(entries, entryType);
+
+        journal = new JournalManager.Journal(crypto, info.toJson(), info.uid);
+        journalJson = journal.toJson();
+    }
+
+    @Benchmark
+    public JournalEntryManager.Entry verifyChain() throws Exceptions.IntegrityException {
+        JournalEntryManager.Entry previous = null;
+        for (JournalEntryManager.Entry entry : entries) {
+            entry.verify(crypto, previous);
+            previous = entry;
+        }
+        return previous;
+    }
+
+    @Benchmark
+    public String entriesToJson() {
+        return GsonHelper.gson.toJson(entries, entryType);
+    }
+
+    @Benchmark
+    public List<JournalEntryManager.Entry> entriesFromJson() {
+        return GsonHelper.gson.fromJson(entriesJson, entryType);
+    }
+
+    @Benchmark
+    public String journalToJson() {
+        return journal.toJson();
+    }
+
+    @Benchmark
+    public JournalManager.Journal journalFromJson() {
+        return GsonHelper.gson.fromJson(journalJson, JournalManager.Journal.class);
+    }
+
+    @Benchmark
+    public String syncEntryToJson() {
+        return syncEntry.toJson();
+    }
+
+    @Benchmark
+    public SyncEntry syncEntryFromJson() {
+        return GsonHelper.gson.fromJson(syncEntryJson, SyncEntry.class);
+    }
+}
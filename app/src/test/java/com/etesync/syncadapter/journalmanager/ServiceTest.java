@@ -18,6 +18,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -31,18 +34,23 @@ import okio.BufferedSink;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 public class ServiceTest {
     private OkHttpClient httpClient;
     private HttpUrl remote;
+    private FakeServer server;
     private String authToken;
 
     @Before
     public void setUp() throws Exception {
         httpClient = HttpClient.create(null);
-        remote = HttpUrl.parse("http://localhost:8000"); // FIXME: hardcode for now, should make configureable
+        server = new FakeServer();
+        server.start();
+        remote = server.url();
         JournalAuthenticator journalAuthenticator = new JournalAuthenticator(httpClient, remote);
         authToken = journalAuthenticator.getAuthToken(Helpers.USER, Helpers.PASSWORD);
 
@@ -71,6 +79,7 @@ public class ServiceTest {
 
     @After
     public void tearDown() throws IOException {
+        server.shutdown();
     }
 
     @Test
@@ -203,6 +212,249 @@ public class ServiceTest {
     }
 
 
+    @Test
+    public void testListStopsAtBadHmac() throws IOException, Exceptions.HttpException, Exceptions.GenericCryptoException, Exceptions.IntegrityException {
+        JournalEntryManager journalEntryManager = createJournal();
+        Crypto.CryptoManager crypto = cryptoOf(journalEntryManager);
+
+        // Two good entries, one not chained to the one before it, and two more after that
+        List<JournalEntryManager.Entry> good = createChain(crypto, null, 2);
+        journalEntryManager.create(good, null);
+        List<JournalEntryManager.Entry> bad = createChain(crypto, null, 1);
+        journalEntryManager.create(bad, good.get(1).getUid());
+        journalEntryManager.create(createChain(crypto, bad.get(0).getUid(), 2), bad.get(0).getUid());
+
+        final List<JournalEntryManager.Entry> received = new ArrayList<>();
+        Exception caught = null;
+        try {
+            journalEntryManager.list(crypto, null, 0, new JournalEntryManager.EntryCallback() {
+                @Override
+                public boolean onEntry(JournalEntryManager.Entry entry) {
+                    received.add(entry);
+                    return true;
+                }
+            });
+        } catch (Exceptions.IntegrityException e) {
+            caught = e;
+        }
+
+        assertNotNull(caught);
+        assertEquals(2, received.size());
+        assertEquals(good.get(1).getUid(), received.get(1).getUid());
+    }
+
+    @Test
+    public void testListMalformed() throws IOException, Exceptions.HttpException, Exceptions.GenericCryptoException, Exceptions.IntegrityException {
+        JournalEntryManager journalEntryManager = createJournal();
+        Crypto.CryptoManager crypto = cryptoOf(journalEntryManager);
+
+        // A proxy's error page isn't going to turn into entries by downloading it again
+        server.setEntriesBody("<html><body>Bad gateway</body></html>");
+        int requests = server.getRequestCount();
+        Exception caught = null;
+        try {
+            journalEntryManager.list(crypto, null, 0);
+        } catch (Exceptions.HttpException e) {
+            caught = e;
+        }
+
+        assertNotNull(caught);
+        assertFalse(caught instanceof Exceptions.ServiceUnavailableException);
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testListMaxBytes() throws IOException, Exceptions.HttpException, Exceptions.GenericCryptoException, Exceptions.IntegrityException {
+        JournalEntryManager journalEntryManager = createJournal();
+        Crypto.CryptoManager crypto = cryptoOf(journalEntryManager);
+        List<JournalEntryManager.Entry> entries = createChain(crypto, null, 5);
+        journalEntryManager.create(entries, null);
+
+        // Reading stops at the entry that reaches the limit
+        long entryBytes = entries.get(0).getEncryptedContent().length;
+        List<JournalEntryManager.Entry> page = journalEntryManager.list(crypto, null, 0, entryBytes + 1, null);
+        assertEquals(2, page.size());
+        assertEquals(entries.get(1).getUid(), page.get(1).getUid());
+
+        assertEquals(5, journalEntryManager.list(crypto, null, 0, 0, null).size());
+    }
+
+    @Test
+    public void testPagesBounded() throws IOException, Exceptions.HttpException, Exceptions.GenericCryptoException, Exceptions.IntegrityException, InterruptedException {
+        JournalEntryManager journalEntryManager = createJournal();
+        Crypto.CryptoManager crypto = cryptoOf(journalEntryManager);
+        journalEntryManager.create(createChain(crypto, null, 10), null);
+
+        final int[] received = {0};
+        JournalEntryManager.EntryListener listener = new JournalEntryManager.EntryListener() {
+            @Override
+            public void onEntry(JournalEntryManager.Entry entry) {
+                synchronized (received) {
+                    received[0]++;
+                }
+            }
+
+            @Override
+            public void onDiscarded(List<JournalEntryManager.Entry> entries) {
+            }
+        };
+        BatchSizeController pageSize = new BatchSizeController(2, 2, 2, 1000, 1024 * 1024);
+        int requests = server.getRequestCount();
+        JournalEntryManager.PageIterator pages = journalEntryManager.pages(crypto, null, pageSize, 1, listener);
+        try {
+            assertEquals(2, pages.next().size());
+
+            // While we hold the first page, only the second one is downloaded
+            Thread.sleep(500);
+            assertEquals(requests + 2, server.getRequestCount());
+        } finally {
+            pages.close();
+        }
+
+        synchronized (received) {
+            assertEquals(4, received[0]);
+        }
+        Thread.sleep(500);
+        synchronized (received) {
+            assertEquals(4, received[0]);
+        }
+    }
+
+    private JournalEntryManager createJournal() throws Exceptions.HttpException, Exceptions.IntegrityException, Exceptions.GenericCryptoException {
+        JournalManager journalManager = new JournalManager(httpClient, remote);
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.ADDRESS_BOOK);
+        info.uid = JournalManager.Journal.genUid();
+        info.displayName = "Test";
+        journalManager.create(new JournalManager.Journal(cryptoOf(info.uid), info.toJson(), info.uid));
+        return new JournalEntryManager(httpClient, remote, info.uid);
+    }
+
+    private static Crypto.CryptoManager cryptoOf(JournalEntryManager journalEntryManager) throws Exceptions.IntegrityException, Exceptions.GenericCryptoException {
+        return cryptoOf(journalEntryManager.getUid());
+    }
+
+    private static Crypto.CryptoManager cryptoOf(String journalUid) throws Exceptions.IntegrityException, Exceptions.GenericCryptoException {
+        return new Crypto.CryptoManager(Constants.CURRENT_VERSION, Helpers.keyBase64, journalUid);
+    }
+
+    @Test
+    public void testPushRebase() throws IOException, Exceptions.HttpException, Exceptions.GenericCryptoException, Exceptions.IntegrityException {
+        JournalManager journalManager = new JournalManager(httpClient, remote);
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.ADDRESS_BOOK);
+        info.uid = JournalManager.Journal.genUid();
+        info.displayName = "Test";
+        final Crypto.CryptoManager crypto = new Crypto.CryptoManager(info.version, Helpers.keyBase64, info.uid);
+        journalManager.create(new JournalManager.Journal(crypto, info.toJson(), info.uid));
+
+        final JournalEntryManager journalEntryManager = new JournalEntryManager(httpClient, remote, info.uid);
+
+        // Our local changes, chained to the journal as we last fetched it (empty), and their outbox rows' uids
+        final List<JournalEntryManager.Entry> entries = createChain(crypto, null, 3);
+        final List<String> outbox = new ArrayList<>();
+        for (JournalEntryManager.Entry entry : entries) {
+            outbox.add(entry.getUid());
+        }
+
+        // Another client pushes before we do
+        JournalEntryManager.Entry remoteEntry = createChain(crypto, null, 1).get(0);
+        journalEntryManager.create(Collections.singletonList(remoteEntry), null);
+
+        final List<Integer> rebased = new ArrayList<>();
+        final List<Integer> pushed = new ArrayList<>();
+        BatchSizeController batchSize = new BatchSizeController(2, 2, 2, 1000, 1024 * 1024);
+        String last = journalEntryManager.push(crypto, entries, null, batchSize, 3, new JournalEntryManager.PushListener<RuntimeException>() {
+            @Override
+            public String catchUp(String last) throws Exceptions.HttpException, Exceptions.IntegrityException {
+                List<JournalEntryManager.Entry> missed = journalEntryManager.list(crypto, last, 0);
+                return missed.get(missed.size() - 1).getUid();
+            }
+
+            @Override
+            public void onRebased(int offset) {
+                rebased.add(offset);
+                for (int i = offset; i < entries.size(); i++) {
+                    outbox.set(i, entries.get(i).getUid());
+                }
+            }
+
+            @Override
+            public void onPushed(int offset, int end) {
+                pushed.add(offset);
+            }
+        });
+
+        assertEquals(Collections.singletonList(0), rebased);
+        assertEquals(Arrays.asList(0, 2), pushed);
+
+        // Our entries now follow the other client's, with the uids the outbox was updated to
+        List<JournalEntryManager.Entry> journal = journalEntryManager.list(crypto, null, 0);
+        assertEquals(4, journal.size());
+        assertEquals(remoteEntry.getUid(), journal.get(0).getUid());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(outbox.get(i), journal.get(i + 1).getUid());
+            assertEquals(outbox.get(i), entries.get(i).getUid());
+        }
+        assertEquals(outbox.get(2), last);
+    }
+
+    @Test
+    public void testPushRebaseGivesUp() throws IOException, Exceptions.HttpException, Exceptions.GenericCryptoException, Exceptions.IntegrityException {
+        JournalManager journalManager = new JournalManager(httpClient, remote);
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.ADDRESS_BOOK);
+        info.uid = JournalManager.Journal.genUid();
+        info.displayName = "Test";
+        final Crypto.CryptoManager crypto = new Crypto.CryptoManager(info.version, Helpers.keyBase64, info.uid);
+        journalManager.create(new JournalManager.Journal(crypto, info.toJson(), info.uid));
+
+        final JournalEntryManager journalEntryManager = new JournalEntryManager(httpClient, remote, info.uid);
+        final List<JournalEntryManager.Entry> entries = createChain(crypto, null, 2);
+        journalEntryManager.create(createChain(crypto, null, 1), null);
+
+        // Another client keeps pushing right after each time we caught up
+        final int[] catchUps = {0};
+        BatchSizeController batchSize = new BatchSizeController(2, 2, 2, 1000, 1024 * 1024);
+        Exception caught = null;
+        try {
+            journalEntryManager.push(crypto, entries, null, batchSize, 3, new JournalEntryManager.PushListener<RuntimeException>() {
+                @Override
+                public String catchUp(String last) throws Exceptions.HttpException, Exceptions.IntegrityException {
+                    catchUps[0]++;
+                    List<JournalEntryManager.Entry> missed = journalEntryManager.list(crypto, last, 0);
+                    String newLast = missed.get(missed.size() - 1).getUid();
+                    journalEntryManager.create(createChain(crypto, newLast, 1), newLast);
+                    return newLast;
+                }
+
+                @Override
+                public void onRebased(int offset) {
+                }
+
+                @Override
+                public void onPushed(int offset, int end) {
+                    fail("Pushed although the journal kept changing");
+                }
+            });
+        } catch (Exceptions.ConflictException e) {
+            caught = e;
+        }
+
+        assertNotNull(caught);
+        assertEquals(3, catchUps[0]);
+        assertEquals(4, journalEntryManager.list(crypto, null, 0).size());
+    }
+
+    private static List<JournalEntryManager.Entry> createChain(Crypto.CryptoManager crypto, String last, int count) {
+        List<JournalEntryManager.Entry> ret = new ArrayList<>();
+        JournalEntryManager.Entry previous = (last != null) ? JournalEntryManager.Entry.getFakeWithUid(last) : null;
+        for (int i = 0; i < count; i++) {
+            JournalEntryManager.Entry entry = new JournalEntryManager.Entry();
+            entry.update(crypto, "Content " + i, previous);
+            ret.add(entry);
+            previous = entry;
+        }
+        return ret;
+    }
+
     @Test
     public void testUserInfo() throws IOException, Exceptions.HttpException, Exceptions.GenericCryptoException, Exceptions.IntegrityException {
         Crypto.CryptoManager cryptoManager = new Crypto.CryptoManager(Constants.CURRENT_VERSION, Helpers.keyBase64, "userInfo");
@@ -0,0 +1,125 @@
+package com.etesync.syncadapter.journalmanager;
+
+import com.etesync.syncadapter.App;
+import com.etesync.syncadapter.HttpClient;
+import com.etesync.syncadapter.model.CollectionInfo;
+import com.etesync.syncadapter.model.SyncEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+/**
+ * Pushes and fetches a journal against {@link FakeServer} over a simulated link, to measure the effect of batch
+ * sizes and prefetching on a sync.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SyncThroughputBenchmark {
+    private static final int ENTRIES = 1000;
+    private static final long BANDWIDTH = 1024 * 1024;
+
+    @Param({"0", "50", "200"})
+    public long latencyMillis;
+
+    private FakeServer server;
+    private HttpUrl remote;
+    private OkHttpClient httpClient;
+    private Crypto.CryptoManager crypto;
+    private List<JournalEntryManager.Entry> entries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new FakeServer();
+        server.setLatency(latencyMillis);
+        server.setBandwidth(BANDWIDTH);
+        server.start();
+        remote = server.url();
+
+        String authToken = new JournalAuthenticator(HttpClient.create(null), remote).getAuthToken(Helpers.USER, Helpers.PASSWORD);
+        httpClient = HttpClient.create(null, App.log, null, authToken);
+
+        StringBuilder vcard = new StringBuilder("BEGIN:VCARD\r\nVERSION:4.0\r\nFN:Test\r\n");
+        for (int i = 0; i < 20; i++) {
+            vcard.append("NOTE:Some test note number ").append(i).append("\r\n");
+        }
+        vcard.append("END:VCARD\r\n");
+        String content = new SyncEntry(vcard.toString(), SyncEntry.Actions.ADD).toJson();
+
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.ADDRESS_BOOK);
+        info.uid = JournalManager.Journal.genUid();
+        crypto = new Crypto.CryptoManager(info.version, Helpers.keyBase64, info.uid);
+
+        entries = new ArrayList<>(ENTRIES);
+        JournalEntryManager.Entry previous = null;
+        for (int i = 0; i < ENTRIES; i++) {
+            JournalEntryManager.Entry entry = new JournalEntryManager.Entry();
+            entry.update(crypto, content, previous);
+            entries.add(entry);
+            previous = entry;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private JournalEntryManager createJournal() throws Exception {
+        CollectionInfo info = CollectionInfo.defaultForServiceType(CollectionInfo.Type.ADDRESS_BOOK);
+        info.uid = JournalManager.Journal.genUid();
+        new JournalManager(httpClient, remote).create(new JournalManager.Journal(crypto, info.toJson(), info.uid));
+        return new JournalEntryManager(httpClient, remote, info.uid);
+    }
+
+    @Benchmark
+    public int pushAndFetch() throws Exception {
+        JournalEntryManager journal = createJournal();
+
+        BatchSizeController pushSize = new BatchSizeController(30, 1, 200, 5000, 1024 * 1024);
+        String last = null;
+        int offset = 0;
+        while (offset < entries.size()) {
+            int size = pushSize.getSize();
+            List<JournalEntryManager.Entry> batch = entries.subList(offset, Math.min(offset + size, entries.size()));
+            long start = System.currentTimeMillis();
+            journal.create(batch, last);
+            pushSize.onSuccess(size, batch, System.currentTimeMillis() - start);
+            last = batch.get(batch.size() - 1).getUid();
+            offset += batch.size();
+        }
+
+        int fetched = 0;
+        BatchSizeController pageSize = new BatchSizeController(50, 5, 500, 5000, 2 * 1024 * 1024);
+        JournalEntryManager.PageIterator pages = journal.pages(crypto, null, pageSize, 1);
+        try {
+            do {
+                fetched += pages.next().size();
+            } while (pages.hasNext());
+        } finally {
+            pages.close();
+        }
+        return fetched;
+    }
+}